@@ -0,0 +1,23 @@
+package org.wcpm.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Điểm vào của target/benchmarks.jar: nhận các tham số dòng lệnh của JMH như bình thường
+ * (regex benchmark, -p, -f, -wi, -i, -prof ...) và luôn bật GC profiler để đo allocation
+ * (gc.alloc.rate.norm = số byte cấp phát cho mỗi lần gọi).
+ */
+public class BenchMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder opts = new OptionsBuilder().parent(cli);
+        if (cli.getProfilers().stream().noneMatch(p -> p.getKlass().equals(GCProfiler.class.getName()))) {
+            opts.addProfiler(GCProfiler.class);
+        }
+        new Runner(opts.build()).run();
+    }
+}
@@ -0,0 +1,54 @@
+package org.wcpm.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.wcpm.io.ClickstreamGenerator;
+import org.wcpm.io.CsvReader;
+import org.wcpm.model.Clickstream;
+import org.wcpm.model.EncodedCDB;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đọc CSV (CsvReader.readEncoded) theo số thread; file CSV tạm được sinh một lần mỗi trial
+ * bằng ClickstreamGenerator và xóa khi kết thúc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"200000"})
+    public int rows;
+
+    private Path csv;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        csv = Files.createTempFile("wcpm-bench", ".csv");
+        try (BufferedWriter out = Files.newBufferedWriter(csv)) {
+            for (Clickstream r : new ClickstreamGenerator(rows, 42L).cdb().rows()) {
+                out.write(r.cid() + "," + r.weight() + "," + String.join(" ", r.seq()) + "\n");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Benchmark
+    public EncodedCDB read() throws IOException {
+        return CsvReader.readEncoded(csv, threads);
+    }
+}
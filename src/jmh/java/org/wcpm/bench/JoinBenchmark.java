@@ -0,0 +1,75 @@
+package org.wcpm.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.wcpm.util.CompactIdList;
+import org.wcpm.util.IdList;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmark phép join S-step / I-step của CompactIdList, theo số CID của mỗi IdList.
+ * Hai IdList lấy ngẫu nhiên (theo seed) từ cùng tập CID, mỗi CID có vài vị trí, nên khoảng một nửa
+ * số CID khớp nhau — gần với join giữa hai item phổ biến trong một lớp tương đương.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JoinBenchmark {
+
+    @Param({"1000", "100000"})
+    public int cids;
+
+    private CompactIdList a, b;
+    private double[] weights;
+    private double total;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rnd = new Random(7L);
+        a = list(rnd, 2 * cids);
+        b = list(rnd, 2 * cids);
+        weights = new double[2 * cids];
+        for (int c = 0; c < weights.length; c++) weights[c] = 0.5 + rnd.nextDouble();
+        total = Arrays.stream(weights).sum();
+    }
+
+    /** Mỗi CID trong [0, universe) có mặt với xác suất 1/2, với 1..4 vị trí tăng dần. */
+    private static CompactIdList list(Random rnd, int universe) {
+        CompactIdList l = new CompactIdList();
+        for (int cid = 0; cid < universe; cid++) {
+            if (!rnd.nextBoolean()) continue;
+            int pos = rnd.nextInt(4);
+            for (int k = 1 + rnd.nextInt(4); k > 0; k--) {
+                l.add(cid, pos);
+                pos += 1 + rnd.nextInt(3);
+            }
+        }
+        return l;
+    }
+
+    @Benchmark
+    public IdList sStep() {
+        return a.join(b, IdList.JoinType.S_STEP);
+    }
+
+    @Benchmark
+    public IdList iStep() {
+        return a.join(b, IdList.JoinType.I_STEP);
+    }
+
+    /** Join có ngưỡng: minWs cao hơn support thực tế nên join bị bỏ sớm. */
+    @Benchmark
+    public IdList sStepAbandoned() {
+        return a.join(b, IdList.JoinType.S_STEP, weights, total, 0.9);
+    }
+
+    @Benchmark
+    public double sStepSupport() {
+        return a.join(b, IdList.JoinType.S_STEP).calculateSupport(weights, total);
+    }
+}
@@ -0,0 +1,59 @@
+package org.wcpm.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wcpm.io.ClickstreamGenerator;
+import org.wcpm.miner.PatternMiner;
+import org.wcpm.miner.parallel.*;
+import org.wcpm.miner.serial.CompactSpadeSerial;
+import org.wcpm.model.CDB;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Khai phá đầu-cuối (mine()) của từng miner, theo số thread, minWs và kích thước dữ liệu.
+ * CDB được dựng một lần mỗi trial; encoded() được gọi trước để không tính thời gian mã hóa.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MinerBenchmark {
+
+    @Param({"Serial", "HP", "DP", "AP", "StaticP", "PrefixSpan"})
+    public String miner;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"0.05", "0.02"})
+    public double minWs;
+
+    @Param({"20000"})
+    public int rows;
+
+    private CDB cdb;
+    private PatternMiner m;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cdb = new ClickstreamGenerator(rows, 42L).cdb();
+        cdb.encoded();
+        m = switch (miner) {
+            case "Serial" -> new CompactSpadeSerial();
+            case "HP" -> new HPCompactSpade(threads);
+            case "DP" -> new DPCompactSpade(threads);
+            case "AP" -> new APCompactSpade(threads);
+            case "StaticP" -> new StaticPCompactSpade(threads);
+            case "PrefixSpan" -> new PrefixSpanPseudo(threads);
+            default -> throw new IllegalArgumentException("Miner không hỗ trợ: " + miner);
+        };
+    }
+
+    @Benchmark
+    public void mine(Blackhole bh) {
+        bh.consume(m.mine(cdb, minWs));
+    }
+}
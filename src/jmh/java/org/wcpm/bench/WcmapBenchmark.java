@@ -0,0 +1,42 @@
+package org.wcpm.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.wcpm.io.ClickstreamGenerator;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.WCMAP;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WCMAP.build trên CDB đã mã hóa, theo số thread, kích thước dữ liệu và alphabet
+ * (alphabet nhỏ dùng ma trận dày đặc, alphabet lớn dùng bảng băm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WcmapBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"50", "5000"})
+    public int alphabet;
+
+    private EncodedCDB enc;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        enc = new ClickstreamGenerator(rows, alphabet, 3, 12, 1.0, 42L).cdb().encoded();
+    }
+
+    @Benchmark
+    public WCMAP build() {
+        return WCMAP.build(enc, threads);
+    }
+}
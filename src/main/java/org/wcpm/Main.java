@@ -1,10 +1,13 @@
 package org.wcpm;
+import org.wcpm.io.CdbSnapshot;
 import org.wcpm.io.CsvReader;
 import org.wcpm.model.CDB;
 import org.wcpm.miner.PatternMiner;
 import org.wcpm.miner.serial.CompactSpadeSerial;
 import org.wcpm.miner.parallel.*;
+import org.wcpm.util.MiningStats;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
@@ -12,9 +15,19 @@ public class Main {
     public static void main(String[] args) throws Exception {
 //        Path toy = Path.of("src/main/resources/datasets/toy.csv");
         Path large_clickstream_dataset = Path.of("src/main/resources/datasets/large_clickstream_dataset.csv");
-        CDB cdb = CsvReader.readToy(large_clickstream_dataset);
-        double minWs = 0.02;
         int threads = Math.max(2, Runtime.getRuntime().availableProcessors()-1);
+        // Snapshot nhị phân bên cạnh CSV: lần đầu đọc CSV rồi ghi snapshot, các lần sau nạp snapshot
+        // (sao chép các cột vào heap, bỏ qua bước parse CSV)
+        Path snapshot = Path.of("src/main/resources/datasets/large_clickstream_dataset.wcdb");
+        CDB cdb;
+        if (Files.exists(snapshot)
+                && Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(large_clickstream_dataset)) >= 0) {
+            cdb = CdbSnapshot.open(snapshot).toCDB();
+        } else {
+            cdb = CsvReader.read(large_clickstream_dataset, threads);
+            CdbSnapshot.write(cdb, snapshot);
+        }
+        double minWs = 0.02;
 
         List<PatternMiner> miners = List.of(
                 new CompactSpadeSerial(),
@@ -28,6 +41,8 @@ public class Main {
             var F = m.mine(cdb, minWs);
             long t1 = System.nanoTime();
             System.out.printf("[%s] patterns=%d, time=%.2f ms%n", m.name(), F.size(), (t1-t0)/1e6);
+            // Chạy với -Dwcpm.stats=true để in thống kê theo độ sâu của lượt vừa rồi
+            if (MiningStats.ENABLED) System.out.print(MiningStats.global().report());
             // In vài mẫu để kiểm chứng
 //            F.stream().sorted(Comparator.<List<String>>comparingInt(List::size).thenComparing(Object::toString))
 //                    .limit(10).forEach(p -> System.out.println("  " + p));
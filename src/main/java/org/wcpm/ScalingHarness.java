@@ -0,0 +1,143 @@
+package org.wcpm;
+import org.wcpm.io.ClickstreamGenerator;
+import org.wcpm.model.CDB;
+import org.wcpm.miner.PatternMiner;
+import org.wcpm.miner.PatternSink;
+import org.wcpm.miner.distributed.DistributedCompactSpade;
+import org.wcpm.miner.serial.CompactSpadeSerial;
+import org.wcpm.miner.parallel.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Thí nghiệm scaling: quét tích Descartes của các tham số sinh dữ liệu ({@link ClickstreamGenerator})
+ * và minWs / số thread, chạy mọi miner trên từng CDB, ghi một dòng CSV cho mỗi (cấu hình, miner):
+ * thời gian (ms, tốt nhất trong runs lần), số pattern, heap đỉnh (MB, lớn nhất trong runs lần).
+ *
+ * Mỗi tham số nhận một danh sách giá trị cách nhau bởi dấu phẩy, ví dụ:
+ * <pre>
+ *   ScalingHarness rows=10000,50000,100000 zipf=0.5,1.0 minWs=0.02 threads=1,4 runs=3 out=scaling.csv
+ * </pre>
+ * Tham số: rows, alphabet, minLen, maxLen, zipf, seed, minWs, threads,
+ * miners (Serial, HP, DP, AP, StaticP, PrefixSpan, Dist), runs, out (không có thì in ra stdout).
+ * Mặc định chạy mọi miner trừ Dist (khởi động process worker), Dist phải được chỉ định qua miners;
+ * với Dist, threads là số process worker (mỗi worker một thread).
+ *
+ * Heap đỉnh là tổng peak usage của các memory pool heap, được reset sau một lần System.gc() trước mỗi
+ * lần chạy, nên gồm cả dữ liệu đầu vào còn sống (CDB đã mã hóa) — giống nhau cho mọi miner của cùng
+ * cấu hình. Kết quả chỉ được đếm (sink đếm), không giữ tập pattern trên heap. Miner Serial chạy một
+ * thread nên chỉ chạy với giá trị threads đầu tiên.
+ */
+public class ScalingHarness {
+    /** Các miner chạy mặc định khi không có tham số miners. */
+    private static final List<String> MINERS = List.of("Serial", "HP", "DP", "AP", "StaticP", "PrefixSpan");
+    /** Mọi miner được chấp nhận trong tham số miners. */
+    private static final List<String> ACCEPTED = List.of("Serial", "HP", "DP", "AP", "StaticP", "PrefixSpan", "Dist");
+
+    public static void main(String[] args) throws IOException {
+        Map<String, List<String>> opts = new LinkedHashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Tham số phải có dạng key=value: " + a);
+            opts.put(a.substring(0, eq), List.of(a.substring(eq + 1).split(",")));
+        }
+        List<Integer> rows = ints(opts.remove("rows"), "10000");
+        List<Integer> alphabet = ints(opts.remove("alphabet"), "50");
+        List<Integer> minLen = ints(opts.remove("minLen"), "3");
+        List<Integer> maxLen = ints(opts.remove("maxLen"), "12");
+        List<Double> zipf = doubles(opts.remove("zipf"), "1.0");
+        List<Long> seed = longs(opts.remove("seed"), "42");
+        List<Double> minWs = doubles(opts.remove("minWs"), "0.02");
+        List<Integer> threads = ints(opts.remove("threads"),
+                String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors() - 1)));
+        List<String> miners = opts.containsKey("miners") ? opts.remove("miners") : MINERS;
+        int runs = ints(opts.remove("runs"), "1").get(0);
+        List<String> out = opts.remove("out");
+        if (!opts.isEmpty()) throw new IllegalArgumentException("Tham số không hỗ trợ: " + opts.keySet());
+        for (String m : miners) {
+            if (!ACCEPTED.contains(m)) throw new IllegalArgumentException("Miner không hỗ trợ: " + m + " " + ACCEPTED);
+        }
+
+        PrintStream csv = out == null ? System.out : new PrintStream(Files.newOutputStream(Path.of(out.get(0))), true);
+        try {
+            csv.println("rows,alphabet,minLen,maxLen,zipf,seed,minWs,threads,miner,timeMs,patterns,peakHeapMb");
+            for (int r : rows) for (int a : alphabet) for (int lo : minLen) for (int hi : maxLen)
+                for (double z : zipf) for (long s : seed) {
+                    if (hi < lo) continue;
+                    ClickstreamGenerator gen = new ClickstreamGenerator(r, a, lo, hi, z, s);
+                    CDB cdb = gen.cdb();
+                    cdb.encoded();
+                    for (double ms : minWs) for (int t : threads) for (String name : miners) {
+                        if (name.equals("Serial") && t != threads.get(0)) continue;
+                        PatternMiner m = miner(name, t);
+                        long best = Long.MAX_VALUE, peak = 0;
+                        long patterns = 0;
+                        for (int k = 0; k < runs; k++) {
+                            resetPeak();
+                            long t0 = System.nanoTime();
+                            PatternSink.Counting count = PatternSink.counting();
+                            m.mine(cdb, ms, count);
+                            patterns = count.count();
+                            best = Math.min(best, System.nanoTime() - t0);
+                            peak = Math.max(peak, peakHeap());
+                        }
+                        csv.printf(Locale.ROOT, "%d,%d,%d,%d,%s,%d,%s,%d,%s,%.2f,%d,%.1f%n",
+                                r, a, lo, hi, z, s, ms, name.equals("Serial") ? 1 : t, name,
+                                best / 1e6, patterns, peak / (1024.0 * 1024.0));
+                        if (out != null) {
+                            System.out.printf("[%s] rows=%d alphabet=%d len=%d..%d zipf=%s minWs=%s: %.2f ms, %d patterns%n",
+                                    m.name(), r, a, lo, hi, z, ms, best / 1e6, patterns);
+                        }
+                    }
+                }
+        } finally {
+            if (csv != System.out) csv.close();
+        }
+    }
+
+    private static PatternMiner miner(String name, int threads) {
+        return switch (name) {
+            case "Serial" -> new CompactSpadeSerial();
+            case "HP" -> new HPCompactSpade(threads);
+            case "DP" -> new DPCompactSpade(threads);
+            case "AP" -> new APCompactSpade(threads);
+            case "StaticP" -> new StaticPCompactSpade(threads);
+            case "PrefixSpan" -> new PrefixSpanPseudo(threads);
+            case "Dist" -> new DistributedCompactSpade(threads);
+            default -> throw new IllegalArgumentException("Miner không hỗ trợ: " + name);
+        };
+    }
+
+    private static void resetPeak() {
+        System.gc();
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (p.getType() == MemoryType.HEAP) p.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap() {
+        long sum = 0;
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (p.getType() == MemoryType.HEAP && p.getPeakUsage() != null) sum += p.getPeakUsage().getUsed();
+        }
+        return sum;
+    }
+
+    private static List<Integer> ints(List<String> v, String def) {
+        return (v == null ? List.of(def) : v).stream().map(String::trim).map(Integer::valueOf).toList();
+    }
+
+    private static List<Long> longs(List<String> v, String def) {
+        return (v == null ? List.of(def) : v).stream().map(String::trim).map(Long::valueOf).toList();
+    }
+
+    private static List<Double> doubles(List<String> v, String def) {
+        return (v == null ? List.of(def) : v).stream().map(String::trim).map(Double::valueOf).toList();
+    }
+}
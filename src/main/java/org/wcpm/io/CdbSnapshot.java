@@ -0,0 +1,241 @@
+package org.wcpm.io;
+import org.wcpm.model.*;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Snapshot nhị phân dạng cột của một CDB đã mã hóa, để các lần chạy sau (quét nhiều ngưỡng minWs,
+ * job định kỳ) bắt đầu khai phá ngay mà không phải đọc lại CSV.
+ *
+ * Định dạng (little-endian, các section căn 8 byte):
+ * <pre>
+ *   header   : magic "WCDB", version, rows, alphabetSize, totalItems(long), totalWeight(double),
+ *              offset của 5 section bên dưới (long)
+ *   dict     : alphabetSize x (int len, UTF-8 bytes)  - theo thứ tự id (thứ tự alphabet)
+ *   cid      : int[rows]
+ *   weight   : double[rows]
+ *   offsets  : int[rows + 1]                          - chuỗi r là items[offsets[r] .. offsets[r+1])
+ *   items    : int[totalItems]
+ * </pre>
+ * Đây là bản tiền xử lý được lưu lại (bỏ qua tách dòng, parse số và dựng từ điển của CSV), không phải
+ * nạp zero-copy: các accessor đọc trực tiếp trên view cột đã map, nhưng {@link #toEncoded()} /
+ * {@link #toCDB()} là một lần sao chép đầy đủ mọi cột sang mảng trên heap (sao chép hàng loạt, không tạo
+ * object cho từng dòng), vì các miner join trên int[] / double[].
+ *
+ * Mỗi section được map riêng và chia thành các vùng tối đa {@link #CHUNK_BYTES} (như CsvReader đọc CSV
+ * theo chunk), nên file lớn hơn 2GB vẫn ghi / nạp được; giới hạn còn lại là của EncodedCDB (tối đa
+ * Integer.MAX_VALUE item).
+ */
+public final class CdbSnapshot {
+    private static final int MAGIC = 0x57434442; // "WCDB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 72;
+    /** Kích thước một vùng map; bội của 8 nên không phần tử nào nằm vắt qua hai vùng. */
+    static final long CHUNK_BYTES = 1L << 30;
+    private static final int INT_SHIFT = 28, DOUBLE_SHIFT = 27; // log2(CHUNK_BYTES / 4), log2(CHUNK_BYTES / 8)
+
+    private final String[] dictionary;
+    private final int rows;
+    private final long totalItems;
+    private final double totalWeight;
+    private final IntBuffer[] cids;
+    private final DoubleBuffer[] weights;
+    private final IntBuffer[] offsets;
+    private final IntBuffer[] items;
+
+    private CdbSnapshot(String[] dictionary, int rows, long totalItems, double totalWeight,
+                        IntBuffer[] cids, DoubleBuffer[] weights, IntBuffer[] offsets, IntBuffer[] items) {
+        this.dictionary = dictionary;
+        this.rows = rows;
+        this.totalItems = totalItems;
+        this.totalWeight = totalWeight;
+        this.cids = cids;
+        this.weights = weights;
+        this.offsets = offsets;
+        this.items = items;
+    }
+
+    public static void write(CDB cdb, Path out) throws IOException {
+        write(cdb.encoded(), out);
+    }
+
+    public static void write(EncodedCDB enc, Path out) throws IOException {
+        int rows = enc.size();
+        int totalItems = rows == 0 ? 0 : enc.end(rows - 1);
+        byte[][] dict = new byte[enc.alphabetSize()][];
+        long dictBytes = 0;
+        for (int i = 0; i < dict.length; i++) {
+            dict[i] = enc.item(i).getBytes(StandardCharsets.UTF_8);
+            dictBytes += 4 + dict[i].length;
+        }
+
+        long dictOffset = HEADER_BYTES;
+        long cidOffset = align(dictOffset + dictBytes);
+        long weightOffset = align(cidOffset + 4L * rows);
+        long offsetsOffset = weightOffset + 8L * rows;
+        long itemsOffset = align(offsetsOffset + 4L * (rows + 1));
+        long size = itemsOffset + 4L * totalItems;
+        if (cidOffset > CHUNK_BYTES) throw new IOException("Từ điển quá lớn cho một vùng map: " + dictBytes + " byte");
+
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.allocate(1), size - 1); // cấp đủ độ dài file trước khi map từng section
+            MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_WRITE, 0, cidOffset);
+            head.order(ByteOrder.LITTLE_ENDIAN);
+            head.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(dict.length)
+                    .putLong(totalItems).putDouble(enc.totalWeight())
+                    .putLong(dictOffset).putLong(cidOffset).putLong(weightOffset)
+                    .putLong(offsetsOffset).putLong(itemsOffset);
+            head.position((int) dictOffset);
+            for (byte[] b : dict) head.putInt(b.length).put(b);
+            head.force();
+
+            long r = 0;
+            for (MappedByteBuffer b : map(ch, FileChannel.MapMode.READ_WRITE, cidOffset, 4L * rows)) {
+                IntBuffer c = b.asIntBuffer();
+                while (c.hasRemaining()) c.put(enc.cid((int) r++));
+                b.force();
+            }
+            r = 0;
+            for (MappedByteBuffer b : map(ch, FileChannel.MapMode.READ_WRITE, weightOffset, 8L * rows)) {
+                DoubleBuffer w = b.asDoubleBuffer();
+                while (w.hasRemaining()) w.put(enc.weight((int) r++));
+                b.force();
+            }
+            r = 0;
+            for (MappedByteBuffer b : map(ch, FileChannel.MapMode.READ_WRITE, offsetsOffset, 4L * (rows + 1))) {
+                IntBuffer o = b.asIntBuffer();
+                while (o.hasRemaining()) {
+                    o.put(r == 0 ? 0 : enc.end((int) (r - 1)));
+                    r++;
+                }
+                b.force();
+            }
+            int p = 0;
+            for (MappedByteBuffer b : map(ch, FileChannel.MapMode.READ_WRITE, itemsOffset, 4L * totalItems)) {
+                IntBuffer it = b.asIntBuffer();
+                int n = it.remaining();
+                it.put(enc.flatItems(), p, n);
+                p += n;
+                b.force();
+            }
+        }
+    }
+
+    public static CdbSnapshot open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES) throw new IOException("Không phải snapshot CDB: " + path);
+            ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (head.getInt() != MAGIC) throw new IOException("Không phải snapshot CDB: " + path);
+            int version = head.getInt();
+            if (version != VERSION) throw new IOException("Phiên bản snapshot CDB không hỗ trợ " + version + ": " + path);
+            int rows = head.getInt();
+            int alphabet = head.getInt();
+            long totalItems = head.getLong();
+            double totalWeight = head.getDouble();
+            long dictOffset = head.getLong(), cidOffset = head.getLong(), weightOffset = head.getLong();
+            long offsetsOffset = head.getLong(), itemsOffset = head.getLong();
+            if (rows < 0 || alphabet < 0 || totalItems < 0 || cidOffset > CHUNK_BYTES
+                    || itemsOffset + 4L * totalItems > size)
+                throw new IOException("Snapshot CDB hỏng hoặc bị cắt cụt: " + path);
+
+            ByteBuffer dict = ch.map(FileChannel.MapMode.READ_ONLY, dictOffset, cidOffset - dictOffset)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            String[] dictionary = new String[alphabet];
+            for (int i = 0; i < alphabet; i++) {
+                byte[] b = new byte[dict.getInt()];
+                dict.get(b);
+                dictionary[i] = new String(b, StandardCharsets.UTF_8);
+            }
+
+            MappedByteBuffer[] c = map(ch, FileChannel.MapMode.READ_ONLY, cidOffset, 4L * rows);
+            MappedByteBuffer[] w = map(ch, FileChannel.MapMode.READ_ONLY, weightOffset, 8L * rows);
+            MappedByteBuffer[] o = map(ch, FileChannel.MapMode.READ_ONLY, offsetsOffset, 4L * (rows + 1));
+            MappedByteBuffer[] it = map(ch, FileChannel.MapMode.READ_ONLY, itemsOffset, 4L * totalItems);
+            IntBuffer[] cids = new IntBuffer[c.length], offsets = new IntBuffer[o.length], items = new IntBuffer[it.length];
+            DoubleBuffer[] weights = new DoubleBuffer[w.length];
+            for (int k = 0; k < c.length; k++) cids[k] = c[k].asIntBuffer();
+            for (int k = 0; k < w.length; k++) weights[k] = w[k].asDoubleBuffer();
+            for (int k = 0; k < o.length; k++) offsets[k] = o[k].asIntBuffer();
+            for (int k = 0; k < it.length; k++) items[k] = it[k].asIntBuffer();
+            return new CdbSnapshot(dictionary, rows, totalItems, totalWeight, cids, weights, offsets, items);
+        }
+    }
+
+    /** Map section [offset, offset + bytes) thành các vùng liên tiếp tối đa CHUNK_BYTES (ít nhất một vùng). */
+    private static MappedByteBuffer[] map(FileChannel ch, FileChannel.MapMode mode, long offset, long bytes)
+            throws IOException {
+        int n = (int) Math.max(1, (bytes + CHUNK_BYTES - 1) / CHUNK_BYTES);
+        MappedByteBuffer[] out = new MappedByteBuffer[n];
+        for (int k = 0; k < n; k++) {
+            long from = k * CHUNK_BYTES;
+            out[k] = ch.map(mode, offset + from, Math.min(CHUNK_BYTES, bytes - from));
+            out[k].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return out;
+    }
+
+    private static int get(IntBuffer[] col, long i) {
+        return col[(int) (i >>> INT_SHIFT)].get((int) (i & ((1 << INT_SHIFT) - 1)));
+    }
+
+    private static double get(DoubleBuffer[] col, long i) {
+        return col[(int) (i >>> DOUBLE_SHIFT)].get((int) (i & ((1 << DOUBLE_SHIFT) - 1)));
+    }
+
+    /** Sao chép cả cột (mọi vùng, theo thứ tự) vào dst. */
+    private static void copy(IntBuffer[] col, int[] dst) {
+        int p = 0;
+        for (IntBuffer b : col) {
+            int n = b.capacity();
+            b.get(0, dst, p, n);
+            p += n;
+        }
+    }
+
+    private static void copy(DoubleBuffer[] col, double[] dst) {
+        int p = 0;
+        for (DoubleBuffer b : col) {
+            int n = b.capacity();
+            b.get(0, dst, p, n);
+            p += n;
+        }
+    }
+
+    private static long align(long v) { return (v + 7) & ~7L; }
+
+    public int rows() { return rows; }
+    public double totalWeight() { return totalWeight; }
+    public int alphabetSize() { return dictionary.length; }
+    public String dictionaryItem(int id) { return dictionary[id]; }
+    public int cid(int row) { return get(cids, row); }
+    public double weight(int row) { return get(weights, row); }
+    public int length(int row) { return get(offsets, row + 1) - get(offsets, row); }
+    public int item(int row, int k) { return get(items, (long) get(offsets, row) + k); }
+
+    /**
+     * Sao chép đầy đủ các cột sang EncodedCDB (vài mảng lớn trên heap, không có object theo từng
+     * dòng); sau lệnh này EncodedCDB không còn phụ thuộc vào vùng map.
+     */
+    public EncodedCDB toEncoded() {
+        if (totalItems > Integer.MAX_VALUE)
+            throw new IllegalStateException("Snapshot có quá nhiều item cho EncodedCDB: " + totalItems);
+        int[] c = new int[rows];
+        double[] w = new double[rows];
+        int[] o = new int[rows + 1];
+        int[] it = new int[(int) totalItems];
+        copy(cids, c);
+        copy(weights, w);
+        copy(offsets, o);
+        copy(items, it);
+        return new EncodedCDB(dictionary.clone(), c, w, o, it);
+    }
+
+    public CDB toCDB() {
+        return new CDB(toEncoded());
+    }
+}
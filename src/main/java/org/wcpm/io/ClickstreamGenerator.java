@@ -0,0 +1,119 @@
+package org.wcpm.io;
+import org.wcpm.model.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Sinh CDB tổng hợp có thể tái lập (cùng tham số + seed cho cùng dữ liệu), dùng cho các thí nghiệm
+ * scaling theo số phiên, độ dài phiên, kích thước alphabet và độ lệch Zipf.
+ * <ul>
+ *   <li>rows phiên, CID 1..rows;</li>
+ *   <li>độ dài mỗi phiên đều trong [minLen, maxLen];</li>
+ *   <li>item thứ i (0-based) được chọn với xác suất tỉ lệ 1 / (i+1)^zipf (zipf = 0: phân phối đều);</li>
+ *   <li>trọng số đều trong [0.5, 1.5).</li>
+ * </ul>
+ * Tên item là "p" + id, đệm số 0 để thứ tự từ điển trùng thứ tự độ phổ biến.
+ *
+ * CLI: {@code ClickstreamGenerator out=<file.csv|file.wcdb> [rows=..] [alphabet=..] [minLen=..] [maxLen=..]
+ * [zipf=..] [seed=..]} — đuôi .wcdb ghi snapshot nhị phân ({@link CdbSnapshot}), còn lại ghi CSV
+ * theo định dạng của {@link CsvReader}.
+ */
+public record ClickstreamGenerator(int rows, int alphabet, int minLen, int maxLen, double zipf, long seed) {
+
+    public ClickstreamGenerator {
+        if (rows < 0) throw new IllegalArgumentException("rows phải >= 0: " + rows);
+        if (alphabet <= 0) throw new IllegalArgumentException("alphabet phải dương: " + alphabet);
+        if (minLen <= 0 || maxLen < minLen) {
+            throw new IllegalArgumentException("Cần 0 < minLen <= maxLen: " + minLen + ", " + maxLen);
+        }
+        if (zipf < 0) throw new IllegalArgumentException("zipf phải >= 0: " + zipf);
+    }
+
+    /** Tham số mặc định: 50 item, phiên dài 3..12, zipf = 1. */
+    public ClickstreamGenerator(int rows, long seed) { this(rows, 50, 3, 12, 1.0, seed); }
+
+    /** Sinh lần lượt từng phiên (không giữ cả CDB trong bộ nhớ). */
+    public void forEach(Consumer<Clickstream> sink) {
+        Random rnd = new Random(seed);
+        double[] cdf = new double[alphabet];
+        double sum = 0.0;
+        for (int i = 0; i < alphabet; i++) cdf[i] = sum += Math.pow(i + 1, -zipf);
+        for (int i = 0; i < alphabet; i++) cdf[i] /= sum;
+        String[] names = new String[alphabet];
+        String fmt = "p%0" + String.valueOf(alphabet - 1).length() + "d";
+        for (int i = 0; i < alphabet; i++) names[i] = String.format(fmt, i);
+
+        for (int r = 0; r < rows; r++) {
+            int len = minLen + rnd.nextInt(maxLen - minLen + 1);
+            String[] seq = new String[len];
+            for (int k = 0; k < len; k++) {
+                int x = Arrays.binarySearch(cdf, rnd.nextDouble());
+                seq[k] = names[Math.min(alphabet - 1, x < 0 ? -x - 1 : x)];
+            }
+            sink.accept(new Clickstream(r + 1, List.of(seq), 0.5 + rnd.nextDouble()));
+        }
+    }
+
+    public CDB cdb() {
+        List<Clickstream> out = new ArrayList<>(rows);
+        forEach(out::add);
+        return new CDB(out);
+    }
+
+    /** Ghi CSV dạng cid,weight,item item ... (đọc lại được bằng CsvReader). */
+    public void writeCsv(Path out) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(out)) {
+            StringBuilder line = new StringBuilder();
+            try {
+                forEach(r -> {
+                    line.setLength(0);
+                    line.append(r.cid()).append(',').append(r.weight()).append(',');
+                    line.append(String.join(" ", r.seq())).append('\n');
+                    try {
+                        w.append(line);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    public void writeSnapshot(Path out) throws IOException {
+        CdbSnapshot.write(cdb(), out);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Tham số phải có dạng key=value: " + a);
+            opts.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        String out = opts.remove("out");
+        if (out == null) {
+            System.err.println("Cách dùng: ClickstreamGenerator out=<file.csv|file.wcdb> [rows=10000] [alphabet=50]"
+                    + " [minLen=3] [maxLen=12] [zipf=1.0] [seed=42]");
+            System.exit(2);
+        }
+        ClickstreamGenerator g = new ClickstreamGenerator(
+                Integer.parseInt(opts.getOrDefault("rows", "10000")),
+                Integer.parseInt(opts.getOrDefault("alphabet", "50")),
+                Integer.parseInt(opts.getOrDefault("minLen", "3")),
+                Integer.parseInt(opts.getOrDefault("maxLen", "12")),
+                Double.parseDouble(opts.getOrDefault("zipf", "1.0")),
+                Long.parseLong(opts.getOrDefault("seed", "42")));
+        opts.keySet().removeAll(List.of("rows", "alphabet", "minLen", "maxLen", "zipf", "seed"));
+        if (!opts.isEmpty()) throw new IllegalArgumentException("Tham số không hỗ trợ: " + opts.keySet());
+        Path path = Path.of(out);
+        if (out.endsWith(".wcdb")) g.writeSnapshot(path);
+        else g.writeCsv(path);
+        System.out.printf("Đã ghi %d phiên vào %s%n", g.rows(), path);
+    }
+}
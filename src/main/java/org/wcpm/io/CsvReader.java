@@ -1,6 +1,12 @@
 package org.wcpm.io;
 import org.wcpm.model.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*; import java.util.*;
+import java.util.concurrent.*;
 public class CsvReader {
     public static CDB readToy(Path path) throws Exception {
         List<Clickstream> rows = new ArrayList<>();
@@ -14,4 +20,293 @@ public class CsvReader {
         }
         return new CDB(rows);
     }
-}
\ No newline at end of file
+
+    /** Kích thước tối đa của một chunk (một vùng map không được vượt quá 2GB). */
+    private static final long MAX_CHUNK = 1L << 30;
+
+    /**
+     * Đọc CSV (cid,weight,item item ...) bằng memory-map: file được chia thành các chunk căn theo dòng,
+     * mỗi chunk được tokenize song song bằng bộ tách thủ công (không regex, không readAllLines),
+     * từ điển item được gộp lại ở cuối. CDB trả về được dựng trực tiếp từ {@link EncodedCDB}.
+     */
+    public static CDB read(Path path, int threads) throws IOException {
+        return new CDB(readEncoded(path, threads));
+    }
+
+    public static EncodedCDB readEncoded(Path path, int threads) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long[] bounds = chunkBounds(ch, size, Math.max(1, threads));
+            int chunks = bounds.length - 1;
+
+            List<Chunk> parsed = new ArrayList<>(chunks);
+            if (chunks == 1) {
+                parsed.add(parse(ch.map(FileChannel.MapMode.READ_ONLY, 0, size), 0));
+            } else {
+                ExecutorService es = Executors.newFixedThreadPool(Math.min(threads, chunks));
+                List<Future<Chunk>> futures = new ArrayList<>();
+                for (int c = 0; c < chunks; c++) {
+                    long from = bounds[c], to = bounds[c + 1];
+                    MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                    futures.add(es.submit(() -> parse(buf, from)));
+                }
+                try {
+                    for (var f : futures) parsed.add(f.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException io) throw io;
+                    throw new RuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } finally {
+                    es.shutdown();
+                }
+            }
+            return merge(parsed);
+        }
+    }
+
+    /** Chia [0, size) thành các đoạn, mỗi biên được đẩy tới ngay sau ký tự '\n' kế tiếp. */
+    private static long[] chunkBounds(FileChannel ch, long size, int threads) throws IOException {
+        int chunks = (int) Math.max(1, Math.min(Math.max(threads * 4L, size / MAX_CHUNK + 1), size / (1 << 16) + 1));
+        long[] bounds = new long[chunks + 1];
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        int k = 1;
+        for (int c = 1; c < chunks; c++) {
+            long pos = Math.max(size * c / chunks, bounds[k - 1]);
+            pos = nextLineStart(ch, pos, size, probe);
+            if (pos > bounds[k - 1] && pos < size) bounds[k++] = pos;
+        }
+        bounds[k++] = size;
+        return Arrays.copyOf(bounds, k);
+    }
+
+    private static long nextLineStart(FileChannel ch, long pos, long size, ByteBuffer probe) throws IOException {
+        while (pos < size) {
+            probe.clear();
+            int n = ch.read(probe, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) if (probe.get(i) == '\n') return pos + i + 1;
+            pos += n;
+        }
+        return size;
+    }
+
+    /** Kết quả tokenize một chunk: các cột + từ điển cục bộ. */
+    private static final class Chunk {
+        int rows;
+        int[] cids = new int[1024];
+        double[] weights = new double[1024];
+        int[] offsets = new int[1025]; // offsets[r]..offsets[r+1] trong items
+        int[] items = new int[8192];
+        int nItems;
+        final LocalDict dict = new LocalDict();
+
+        void addItem(int id) {
+            if (nItems == items.length) items = Arrays.copyOf(items, nItems * 2);
+            items[nItems++] = id;
+        }
+
+        void endRow(int cid, double w) {
+            if (rows == cids.length) {
+                cids = Arrays.copyOf(cids, rows * 2);
+                weights = Arrays.copyOf(weights, rows * 2);
+                offsets = Arrays.copyOf(offsets, rows * 2 + 1);
+            }
+            cids[rows] = cid;
+            weights[rows] = w;
+            offsets[++rows] = nItems;
+        }
+    }
+
+    private static Chunk parse(ByteBuffer buf, long base) throws IOException {
+        Chunk out = new Chunk();
+        int end = buf.limit();
+        int p = 0;
+        while (p < end) {
+            int lineEnd = p;
+            while (lineEnd < end && buf.get(lineEnd) != '\n') lineEnd++;
+            int s = skipSpace(buf, p, lineEnd);
+            int e = lineEnd;
+            while (e > s && isSpace(buf.get(e - 1))) e--;
+            if (s < e && buf.get(s) != '#') parseLine(buf, s, e, base, out);
+            p = lineEnd + 1;
+        }
+        return out;
+    }
+
+    private static void parseLine(ByteBuffer buf, int s, int e, long base, Chunk out) throws IOException {
+        int c1 = indexOf(buf, s, e, (byte) ',');
+        int c2 = c1 < 0 ? -1 : indexOf(buf, c1 + 1, e, (byte) ',');
+        if (c2 < 0) throw new IOException("Dòng CSV sai định dạng tại byte " + (base + s));
+        int cid = parseInt(buf, s, c1, base);
+        double w = parseDouble(buf, c1 + 1, c2);
+
+        int p = c2 + 1;
+        while (true) {
+            p = skipSpace(buf, p, e);
+            if (p >= e) break;
+            int q = p;
+            while (q < e && !isSpace(buf.get(q))) q++;
+            out.addItem(out.dict.id(buf, p, q));
+            p = q;
+        }
+        out.endRow(cid, w);
+    }
+
+    private static int parseInt(ByteBuffer buf, int s, int e, long base) throws IOException {
+        s = skipSpace(buf, s, e);
+        while (e > s && isSpace(buf.get(e - 1))) e--;
+        boolean neg = s < e && buf.get(s) == '-';
+        if (neg || (s < e && buf.get(s) == '+')) s++;
+        if (s >= e) throw new IOException("cid sai định dạng tại byte " + (base + s));
+        long v = 0;
+        for (int i = s; i < e; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) throw new IOException("cid sai định dạng tại byte " + (base + s));
+            v = v * 10 + d;
+            if (v > (neg ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE))
+                throw new IOException("cid vượt quá phạm vi int tại byte " + (base + s));
+        }
+        return (int) (neg ? -v : v);
+    }
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Đường nhanh cho số thập phân đơn giản (tối đa 15 chữ số, không có số mũ): m / 10^k là
+     * phép chia hai số double chính xác nên kết quả được làm tròn đúng như Double.parseDouble.
+     * Các dạng khác rơi về Double.parseDouble.
+     */
+    private static double parseDouble(ByteBuffer buf, int s, int e) {
+        s = skipSpace(buf, s, e);
+        while (e > s && isSpace(buf.get(e - 1))) e--;
+        int i = s;
+        boolean neg = i < e && buf.get(i) == '-';
+        if (neg || (i < e && buf.get(i) == '+')) i++;
+        long m = 0;
+        int digits = 0, frac = -1;
+        for (; i < e; i++) {
+            byte b = buf.get(i);
+            if (b == '.' && frac < 0) { frac = 0; continue; }
+            int d = b - '0';
+            if (d < 0 || d > 9) { digits = -1; break; }
+            m = m * 10 + d;
+            digits++;
+            if (frac >= 0) frac++;
+        }
+        if (digits > 0 && digits <= 15) {
+            double v = frac > 0 ? m / POW10[frac] : m;
+            return neg ? -v : v;
+        }
+        byte[] tmp = new byte[e - s];
+        buf.get(s, tmp);
+        return Double.parseDouble(new String(tmp, StandardCharsets.US_ASCII));
+    }
+
+    private static int indexOf(ByteBuffer buf, int s, int e, byte b) {
+        for (int i = s; i < e; i++) if (buf.get(i) == b) return i;
+        return -1;
+    }
+
+    private static int skipSpace(ByteBuffer buf, int p, int e) {
+        while (p < e && isSpace(buf.get(p))) p++;
+        return p;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * Từ điển cục bộ của một chunk: bảng băm địa chỉ mở trên các đoạn byte,
+     * chỉ tạo String cho item lần đầu gặp.
+     */
+    private static final class LocalDict {
+        final List<String> items = new ArrayList<>();
+        final List<byte[]> bytes = new ArrayList<>();
+        int[] table = new int[1024]; // id + 1, 0 = trống
+        int[] hashes = new int[1024];
+
+        int id(ByteBuffer buf, int s, int e) {
+            int h = 1;
+            for (int i = s; i < e; i++) h = 31 * h + buf.get(i);
+            int mask = table.length - 1;
+            for (int slot = mix(h) & mask; ; slot = (slot + 1) & mask) {
+                int t = table[slot];
+                if (t == 0) break;
+                if (hashes[slot] == h && sameBytes(bytes.get(t - 1), buf, s, e)) return t - 1;
+            }
+            byte[] b = new byte[e - s];
+            buf.get(s, b);
+            int id = items.size();
+            items.add(new String(b, StandardCharsets.UTF_8));
+            bytes.add(b);
+            insert(h, id);
+            if (items.size() * 2 > table.length) rehash();
+            return id;
+        }
+
+        private void insert(int h, int id) {
+            int mask = table.length - 1;
+            int slot = mix(h) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+            hashes[slot] = h;
+        }
+
+        private void rehash() {
+            int[] oldTable = table, oldHashes = hashes;
+            table = new int[oldTable.length * 2];
+            hashes = new int[oldTable.length * 2];
+            for (int i = 0; i < oldTable.length; i++) {
+                if (oldTable[i] != 0) insert(oldHashes[i], oldTable[i] - 1);
+            }
+        }
+
+        private static int mix(int h) { return h ^ (h >>> 16) ^ (h >>> 7); }
+
+        private static boolean sameBytes(byte[] a, ByteBuffer buf, int s, int e) {
+            if (a.length != e - s) return false;
+            for (int i = 0; i < a.length; i++) if (a[i] != buf.get(s + i)) return false;
+            return true;
+        }
+    }
+
+    /** Gộp từ điển cục bộ thành alphabet đã sắp xếp (như CDB.alphabet()) và đánh lại id. */
+    private static EncodedCDB merge(List<Chunk> parsed) {
+        TreeSet<String> alpha = new TreeSet<>();
+        int rows = 0;
+        for (Chunk c : parsed) {
+            alpha.addAll(c.dict.items);
+            rows += c.rows;
+        }
+        String[] items = alpha.toArray(new String[0]);
+        Map<String, Integer> global = new HashMap<>(items.length * 2);
+        for (int i = 0; i < items.length; i++) global.put(items[i], i);
+
+        long total = 0;
+        for (Chunk c : parsed) total += c.nItems;
+        if (total > Integer.MAX_VALUE) throw new IllegalStateException("Quá nhiều item: " + total);
+
+        int[] cids = new int[rows];
+        double[] weights = new double[rows];
+        int[] offsets = new int[rows + 1];
+        int[] flat = new int[(int) total];
+        int r = 0, base = 0;
+        for (Chunk c : parsed) {
+            int[] remap = new int[c.dict.items.size()];
+            for (int i = 0; i < remap.length; i++) remap[i] = global.get(c.dict.items.get(i));
+            System.arraycopy(c.cids, 0, cids, r, c.rows);
+            System.arraycopy(c.weights, 0, weights, r, c.rows);
+            for (int k = 0; k < c.rows; k++) offsets[r + k + 1] = base + c.offsets[k + 1];
+            for (int i = 0; i < c.nItems; i++) flat[base + i] = remap[c.items[i]];
+            r += c.rows;
+            base += c.nItems;
+        }
+        return new EncodedCDB(items, cids, weights, offsets, flat);
+    }
+}
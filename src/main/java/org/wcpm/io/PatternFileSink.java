@@ -0,0 +1,103 @@
+package org.wcpm.io;
+import org.wcpm.miner.PatternSink;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sink ghi kết quả khai phá ra file nhị phân qua bộ đệm, nén gzip nếu tên file kết thúc bằng ".gz",
+ * để lượt chạy ra hàng triệu pattern không phải giữ chúng trên heap.
+ *
+ * Định dạng (big-endian, như DataOutputStream):
+ * <pre>
+ *   header  : magic "WPAT", version
+ *   record  : byte tag
+ *     tag 0 : item mới (int len, UTF-8 bytes) - nhận id kế tiếp, bắt đầu từ 0
+ *     tag 1 : pattern (int len, len x int id item, double weightedSupport)
+ * </pre>
+ * Mỗi item chỉ được ghi tên một lần, ngay trước pattern đầu tiên dùng nó. Đọc lại bằng {@link #read}.
+ */
+public final class PatternFileSink implements PatternSink, Closeable {
+    private static final int MAGIC = 0x57504154; // "WPAT"
+    private static final int VERSION = 1;
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final byte ITEM = 0, PATTERN = 1;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private long count;
+
+    public PatternFileSink(Path file) throws IOException {
+        OutputStream os = Files.newOutputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) os = new GZIPOutputStream(os, BUFFER_BYTES);
+        out = new DataOutputStream(new BufferedOutputStream(os, BUFFER_BYTES));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    @Override
+    public void accept(List<String> pattern, double weightedSupport) {
+        try {
+            int[] p = new int[pattern.size()];
+            for (int i = 0; i < p.length; i++) {
+                String item = pattern.get(i);
+                Integer id = ids.get(item);
+                if (id == null) {
+                    ids.put(item, id = ids.size());
+                    byte[] b = item.getBytes(StandardCharsets.UTF_8);
+                    out.writeByte(ITEM);
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+                p[i] = id;
+            }
+            out.writeByte(PATTERN);
+            out.writeInt(p.length);
+            for (int id : p) out.writeInt(id);
+            out.writeDouble(weightedSupport);
+            count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Số pattern đã ghi. */
+    public long count() { return count; }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /** Đọc lại một file do sink này ghi, giao từng pattern cho sink theo thứ tự ghi; trả về số pattern. */
+    public static long read(Path file, PatternSink sink) throws IOException {
+        InputStream is = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) is = new GZIPInputStream(is, BUFFER_BYTES);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(is, BUFFER_BYTES))) {
+            if (in.readInt() != MAGIC) throw new IOException("Không phải file pattern: " + file);
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Phiên bản file pattern không hỗ trợ " + version + ": " + file);
+            List<String> items = new ArrayList<>();
+            long n = 0;
+            int tag;
+            while ((tag = in.read()) >= 0) {
+                if (tag == ITEM) {
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully(b);
+                    items.add(new String(b, StandardCharsets.UTF_8));
+                } else if (tag == PATTERN) {
+                    String[] p = new String[in.readInt()];
+                    for (int i = 0; i < p.length; i++) p[i] = items.get(in.readInt());
+                    sink.accept(List.of(p), in.readDouble());
+                    n++;
+                } else {
+                    throw new IOException("File pattern hỏng (tag " + tag + "): " + file);
+                }
+            }
+            return n;
+        }
+    }
+}
@@ -3,6 +3,18 @@ import org.wcpm.model.CDB;
 import java.util.*;
 
 public interface PatternMiner {
-    Set<List<String>> mine(CDB cdb, double minWs);
+    /**
+     * Khai phá và đẩy từng pattern phổ biến (kèm weighted support) vào sink ngay khi tìm thấy; không
+     * giữ tập kết quả. Trả về khi mọi pattern đã được giao cho sink.
+     */
+    void mine(CDB cdb, double minWs, PatternSink sink);
+
+    /** Như trên, gom mọi pattern vào một Set trên heap. */
+    default Set<List<String>> mine(CDB cdb, double minWs) {
+        PatternSink.Collecting all = PatternSink.collecting();
+        mine(cdb, minWs, all);
+        return all.patterns();
+    }
+
     String name();
 }
@@ -0,0 +1,69 @@
+package org.wcpm.miner;
+import java.util.*;
+
+/**
+ * Nơi nhận kết quả của một lượt khai phá: mỗi pattern phổ biến cùng weighted support của nó, được đẩy ra
+ * ngay khi tìm thấy thay vì gom vào một Set trên heap.
+ *
+ * Miner gom pattern vào bộ đệm riêng của từng worker và giao cho sink theo lô, các lô được giao tuần tự
+ * (xem {@code org.wcpm.util.PatternEmitter}), nên sink không cần an toàn cho thread. Thứ tự pattern giữa
+ * các worker không xác định; mỗi pattern được giao đúng một lần. Sink do bên gọi tạo và đóng.
+ */
+@FunctionalInterface
+public interface PatternSink {
+    void accept(List<String> pattern, double weightedSupport);
+
+    /** Chỉ đếm số pattern, không giữ pattern nào. */
+    static Counting counting() {
+        return new Counting();
+    }
+
+    /** Giữ tối đa limit pattern đầu tiên (theo thứ tự giao) cùng support; phần còn lại chỉ được đếm. */
+    static Collecting collecting(int limit) {
+        return new Collecting(limit);
+    }
+
+    /** Giữ mọi pattern. */
+    static Collecting collecting() {
+        return new Collecting(Integer.MAX_VALUE);
+    }
+
+    final class Counting implements PatternSink {
+        private long count;
+
+        @Override
+        public void accept(List<String> pattern, double weightedSupport) {
+            count++;
+        }
+
+        public long count() { return count; }
+    }
+
+    final class Collecting implements PatternSink {
+        private final int limit;
+        private final Map<List<String>, Double> supports = new LinkedHashMap<>();
+        private long dropped;
+
+        private Collecting(int limit) {
+            if (limit < 0) throw new IllegalArgumentException("limit phải >= 0: " + limit);
+            this.limit = limit;
+        }
+
+        @Override
+        public void accept(List<String> pattern, double weightedSupport) {
+            if (supports.size() < limit) supports.put(pattern, weightedSupport);
+            else dropped++;
+        }
+
+        /** Các pattern đã giữ, theo thứ tự giao. */
+        public Set<List<String>> patterns() { return supports.keySet(); }
+
+        /** Pattern đã giữ -> weighted support. */
+        public Map<List<String>, Double> supports() { return supports; }
+
+        /** Số pattern bị bỏ vì đã đủ limit. */
+        public long dropped() { return dropped; }
+
+        public long count() { return supports.size() + dropped; }
+    }
+}
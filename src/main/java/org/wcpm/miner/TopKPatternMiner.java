@@ -0,0 +1,14 @@
+package org.wcpm.miner;
+import org.wcpm.model.CDB;
+import java.util.*;
+
+/**
+ * Miner hỗ trợ chế độ top-k: không cần đoán minWs, ngưỡng được nâng dần theo support của pattern thứ k.
+ */
+public interface TopKPatternMiner extends PatternMiner {
+    /**
+     * k pattern có weighted support cao nhất (kể cả các pattern bằng support với pattern thứ k),
+     * theo support giảm dần.
+     */
+    Set<List<String>> mineTopK(CDB cdb, int k);
+}
@@ -0,0 +1,238 @@
+package org.wcpm.miner.distributed;
+
+import org.wcpm.io.CdbSnapshot;
+import org.wcpm.miner.PatternMiner;
+import org.wcpm.miner.PatternSink;
+import org.wcpm.model.CDB;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.ClassCost;
+import org.wcpm.util.EqClass;
+import org.wcpm.util.MiningStats;
+import org.wcpm.util.PatternEmitter;
+import org.wcpm.util.WCMAP;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Khai phá nhiều process trên một máy: phân rã của HP-Compact-SPADE (các 1-class là các cây con độc lập)
+ * nhưng mỗi 1-class được duyệt trong một JVM worker riêng ({@link DistributedWorker}), không bị giới
+ * hạn bởi heap / số core của một JVM.
+ * <ol>
+ *   <li>Coordinator (JVM gọi mine) dựng F1, WCMAP và các 1-class, ghi CDB đã mã hóa ra một
+ *       {@link CdbSnapshot} tạm (file dùng chung), rồi khởi động N process worker.</li>
+ *   <li>Mỗi worker nối về coordinator qua socket loopback, nạp thẳng EncodedCDB từ snapshot (không qua CDB
+ *       dạng String) và nhận WCMAP đã tuần tự hóa trong SETUP, nên không phải quét lại CDB; cả hai
+ *       phía dùng chung mã item của snapshot.</li>
+ *   <li>Cân bằng động: các 1-class (đã tuần tự hóa cùng IdList, {@link EqClass#toBytes()}) nằm trong một
+ *       hàng đợi LPT; worker xong lớp nào thì nhận lớp kế tiếp. Worker gửi pattern về (id item + weighted
+ *       support) ngay trong lúc duyệt, coordinator giao chúng cho sink qua {@link PatternEmitter}.</li>
+ * </ol>
+ * Worker nhận các tùy chọn {@code -Dwcpm.*} của coordinator (vd. ngân sách bộ nhớ của SpillStore) và
+ * thêm các tùy chọn JVM trong {@code -Dwcpm.workerJvmOptions="-Xmx2g ..."}. Một worker lỗi làm lượt
+ * chạy lỗi (pattern của lớp đang duyệt đã được giao một phần, nên không giao lại lớp cho worker khác).
+ * Chỉ hỗ trợ Output.ALL và backend CompactIdList (TIDSET / DIFFSET / AUTO).
+ */
+public class DistributedCompactSpade implements PatternMiner {
+    // Thông điệp trên socket (DataOutputStream, big-endian), mở đầu bằng một byte tag
+    static final byte SETUP = 1;   // coordinator -> worker: đường dẫn snapshot, minWs, storage, int len, bytes WCMAP
+    static final byte JOB = 2;     // coordinator -> worker: int len, bytes của một 1-class
+    static final byte STOP = 3;    // coordinator -> worker: hết việc
+    static final byte PATTERN = 4; // worker -> coordinator: int len, len x int id item, double ws
+    static final byte DONE = 5;    // worker -> coordinator: xong lớp hiện tại, long thời gian (ns)
+    static final byte FAILED = 6;  // worker -> coordinator: UTF thông báo lỗi
+    private static final int ACCEPT_TIMEOUT_MS = 60_000;
+
+    private final int workers;
+    private final int threadsPerWorker;
+    private final EqClass.Storage storage;
+    private volatile List<ClassCost.Sample> costSamples = List.of();
+
+    public DistributedCompactSpade(int workers) {
+        this(workers, 1, EqClass.Storage.TIDSET);
+    }
+
+    public DistributedCompactSpade(int workers, int threadsPerWorker, EqClass.Storage storage) {
+        if (workers < 1 || threadsPerWorker < 1)
+            throw new IllegalArgumentException("Cần ít nhất 1 worker và 1 thread mỗi worker");
+        if (storage == EqClass.Storage.BITMAP)
+            throw new UnsupportedOperationException("Backend bitmap không gửi được sang worker");
+        this.workers = workers;
+        this.threadsPerWorker = threadsPerWorker;
+        this.storage = storage;
+    }
+
+    @Override
+    public String name() {
+        return "Dist-Compact-SPADE(" + workers + "x" + threadsPerWorker
+                + (storage == EqClass.Storage.TIDSET ? "" : ", " + storage) + ")";
+    }
+
+    /** Chi phí ước lượng và thời gian thực (tại worker) của từng 1-class trong lượt chạy gần nhất. */
+    public List<ClassCost.Sample> costSamples() { return costSamples; }
+
+    @Override
+    public void mine(CDB cdb, double minWs, PatternSink sink) {
+        MiningStats.MineEvent ev = MiningStats.beginRun(name(), workers * threadsPerWorker, minWs);
+        EncodedCDB enc = cdb.encoded();
+        WCMAP wcmap = WCMAP.build(enc, threadsPerWorker);
+        double[] cidWeights = enc.denseCidWeights();
+        double totalWeight = enc.totalWeight();
+        PatternEmitter F = new PatternEmitter(enc, sink);
+
+        // --- GIAI ĐOẠN 1: F1 VÀ CÁC 1-CLASS TẠI COORDINATOR ---
+        EqClass f1 = EqClass.frequentItems(enc, cidWeights, totalWeight, minWs, F, storage);
+        ForkJoinPool pool = new ForkJoinPool(threadsPerWorker);
+        List<EqClass> oneClasses;
+        try {
+            oneClasses = pool.invoke(ForkJoinTask.adapt(
+                    () -> f1.expand(enc, F, null, cidWeights, totalWeight, wcmap, minWs, true)));
+        } finally {
+            pool.shutdown();
+        }
+        BlockingQueue<Job> jobs = lptQueue(oneClasses, enc, wcmap, minWs);
+        oneClasses = null;
+        byte[] wcmapBytes = wcmap.toBytes();
+
+        // --- GIAI ĐOẠN 2: CÁC PROCESS WORKER ---
+        List<ClassCost.Sample> samples = Collections.synchronizedList(new ArrayList<>());
+        List<Process> processes = new ArrayList<>();
+        Path snapshot = null;
+        boolean completed = false;
+        ExecutorService sessions = Executors.newFixedThreadPool(workers);
+        try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            snapshot = Files.createTempFile("wcpm-dist-", ".wcdb");
+            CdbSnapshot.write(enc, snapshot);
+            server.setSoTimeout(ACCEPT_TIMEOUT_MS);
+            for (int i = 0; i < workers; i++) processes.add(spawn(server.getLocalPort()));
+
+            List<Future<?>> running = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                Socket socket = server.accept();
+                Path shared = snapshot;
+                running.add(sessions.submit(() -> {
+                    serve(socket, shared, wcmapBytes, minWs, jobs, F, samples);
+                    return null;
+                }));
+            }
+            for (Future<?> f : running) f.get();
+            completed = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            sessions.shutdownNow();
+            stop(processes, completed);
+            if (snapshot != null) {
+                try {
+                    Files.deleteIfExists(snapshot);
+                } catch (IOException ignored) {
+                    // file tạm trong thư mục tạm: để hệ điều hành dọn nếu không xóa được
+                }
+            }
+        }
+        costSamples = List.copyOf(samples);
+        MiningStats.endRun(ev, F.finish());
+    }
+
+    /** Một 1-class đã tuần tự hóa cùng nhãn (item đầu) và chi phí ước lượng. */
+    private record Job(byte[] eqClass, String label, double cost) {}
+
+    /** Hàng đợi LPT như HPCompactSpade; lớp được tuần tự hóa rồi giải phóng ngay. */
+    private static BlockingQueue<Job> lptQueue(List<EqClass> oneClasses, EncodedCDB enc, WCMAP wcmap, double minWs) {
+        double[] cost = new double[oneClasses.size()];
+        for (int i = 0; i < cost.length; i++) cost[i] = ClassCost.estimate(oneClasses.get(i), wcmap, minWs);
+        BlockingQueue<Job> q = new LinkedBlockingQueue<>();
+        for (int i : ClassCost.lptOrder(cost)) {
+            EqClass c = oneClasses.get(i);
+            q.add(new Job(c.toBytes(), enc.item(c.pattern(0)[0]), cost[i]));
+            c.release();
+        }
+        return q;
+    }
+
+    /** Phiên với một worker: gửi lớp kế tiếp mỗi khi worker xong lớp trước, tới khi hết hàng đợi. */
+    private void serve(Socket socket, Path snapshot, byte[] wcmap, double minWs, BlockingQueue<Job> jobs,
+                       PatternEmitter F, List<ClassCost.Sample> samples) throws IOException {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeByte(SETUP);
+            out.writeUTF(snapshot.toString());
+            out.writeDouble(minWs);
+            out.writeInt(storage.ordinal());
+            out.writeInt(wcmap.length);
+            out.write(wcmap);
+            out.flush();
+
+            Job job;
+            while ((job = jobs.poll()) != null) {
+                MiningStats.TaskEvent task = MiningStats.beginTask(name(), 1);
+                out.writeByte(JOB);
+                out.writeInt(job.eqClass().length);
+                out.write(job.eqClass());
+                out.flush();
+                while (true) {
+                    byte tag = in.readByte();
+                    if (tag == PATTERN) {
+                        int[] p = new int[in.readInt()];
+                        for (int k = 0; k < p.length; k++) p[k] = in.readInt();
+                        F.emit(p, in.readDouble());
+                    } else if (tag == DONE) {
+                        samples.add(new ClassCost.Sample(job.label(), job.cost(), in.readLong()));
+                        break;
+                    } else if (tag == FAILED) {
+                        throw new IOException("Worker lỗi ở 1-class [" + job.label() + "]: " + in.readUTF());
+                    } else {
+                        throw new IOException("Thông điệp không hợp lệ từ worker: " + tag);
+                    }
+                }
+                MiningStats.endTask(task);
+            }
+            out.writeByte(STOP);
+            out.flush();
+        }
+    }
+
+    /** Khởi động một JVM worker cùng classpath, nối về cổng loopback port. */
+    private Process spawn(int port) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        String jvmOptions = System.getProperty("wcpm.workerJvmOptions", "").trim();
+        if (!jvmOptions.isEmpty()) cmd.addAll(Arrays.asList(jvmOptions.split("\\s+")));
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("wcpm.") && !key.equals("wcpm.workerJvmOptions"))
+                cmd.add("-D" + key + "=" + System.getProperty(key));
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(DistributedWorker.class.getName());
+        cmd.add(InetAddress.getLoopbackAddress().getHostAddress());
+        cmd.add(Integer.toString(port));
+        cmd.add(Integer.toString(threadsPerWorker));
+        return new ProcessBuilder(cmd).inheritIO().start();
+    }
+
+    /** Đợi các worker thoát sau STOP; nếu lượt chạy lỗi thì dừng ngay mọi worker còn chạy. */
+    private static void stop(List<Process> processes, boolean completed) {
+        for (Process p : processes) {
+            if (!completed) p.destroyForcibly();
+            try {
+                if (!p.waitFor(10, TimeUnit.SECONDS)) p.destroyForcibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                p.destroyForcibly();
+            }
+        }
+    }
+}
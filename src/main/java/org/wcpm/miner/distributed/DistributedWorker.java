@@ -0,0 +1,107 @@
+package org.wcpm.miner.distributed;
+
+import org.wcpm.io.CdbSnapshot;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.EqClass;
+import org.wcpm.util.PatternEmitter;
+import org.wcpm.util.SpillStore;
+import org.wcpm.util.WCMAP;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static org.wcpm.miner.distributed.DistributedCompactSpade.*;
+
+/**
+ * Process worker của {@link DistributedCompactSpade}: nối về coordinator, nạp snapshot CDB dùng chung
+ * và WCMAP coordinator gửi kèm SETUP, rồi lần lượt nhận các 1-class và duyệt DFS cả cây con của mỗi lớp (như worker của HPCompactSpade,
+ * lớp lớn chia vòng join thành các khối hàng trên threads thread), gửi pattern về ngay khi tìm thấy.
+ *
+ * Thường được coordinator tự khởi động; cũng chạy tay được:
+ * <pre>
+ *   java -cp ... org.wcpm.miner.distributed.DistributedWorker &lt;host&gt; &lt;port&gt; [threads]
+ * </pre>
+ */
+public final class DistributedWorker {
+    private DistributedWorker() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DistributedWorker <host> <port> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            run(in, out, threads);
+        }
+    }
+
+    private static void run(DataInputStream in, DataOutputStream out, int threads) throws IOException {
+        if (in.readByte() != SETUP) throw new IOException("Coordinator không gửi SETUP");
+        Path snapshot = Path.of(in.readUTF());
+        double minWs = in.readDouble();
+        EqClass.Storage storage = EqClass.Storage.values()[in.readInt()];
+        byte[] wcmapBytes = new byte[in.readInt()];
+        in.readFully(wcmapBytes);
+
+        EncodedCDB enc = CdbSnapshot.open(snapshot).toEncoded();
+        WCMAP wcmap = WCMAP.fromBytes(wcmapBytes, enc);
+        double[] cidWeights = enc.denseCidWeights();
+        double totalWeight = enc.totalWeight();
+        // Pattern về coordinator dưới dạng id item, không giải mã: cả hai phía dùng mã hóa của cùng một snapshot
+        PatternEmitter F = new PatternEmitter((pattern, ws) -> {
+            try {
+                out.writeByte(PATTERN);
+                out.writeInt(pattern.length);
+                for (int id : pattern) out.writeInt(id);
+                out.writeDouble(ws);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (SpillStore spill = SpillStore.fromSystemProperties()) {
+            while (true) {
+                byte tag = in.readByte();
+                if (tag == STOP) break;
+                if (tag != JOB) throw new IOException("Thông điệp không hợp lệ từ coordinator: " + tag);
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+
+                long t0 = System.nanoTime();
+                try {
+                    EqClass eqClass = EqClass.fromBytes(bytes, storage);
+                    pool.invoke(ForkJoinTask.adapt(
+                            () -> dfsExtend(eqClass, spill, F, enc, cidWeights, totalWeight, wcmap, minWs)));
+                    F.finish(); // giao nốt pattern của lớp này trước DONE
+                } catch (RuntimeException | Error e) {
+                    out.writeByte(FAILED);
+                    out.writeUTF(String.valueOf(e));
+                    out.flush();
+                    throw e;
+                }
+                out.writeByte(DONE);
+                out.writeLong(System.nanoTime() - t0);
+                out.flush();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void dfsExtend(EqClass currentEqClass, SpillStore spill, PatternEmitter F, EncodedCDB enc,
+                                  double[] cidWeights, double totalWeight, WCMAP wcmap, double minWs) {
+        List<SpillStore.Pending> next = currentEqClass.expand(enc, F, null, cidWeights, totalWeight, wcmap, minWs, true, spill);
+        for (int k = 0; k < next.size(); k++) {
+            dfsExtend(spill.take(next.set(k, null)), spill, F, enc, cidWeights, totalWeight, wcmap, minWs);
+        }
+        currentEqClass.release();
+    }
+}
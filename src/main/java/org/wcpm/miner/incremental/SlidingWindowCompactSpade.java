@@ -0,0 +1,279 @@
+package org.wcpm.miner.incremental;
+
+import org.wcpm.model.Clickstream;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.CompactIdList;
+import org.wcpm.util.EqClass;
+import org.wcpm.util.WCMAP;
+
+import java.util.*;
+
+/**
+ * Compact-SPADE tăng dần trên cửa sổ trượt gồm windowSize phiên gần nhất.
+ *
+ * Thay vì dựng lại WCMAP, các IdList F1 và toàn bộ cây DFS sau mỗi lần dữ liệu thay đổi, miner giữ:
+ * - accumulator WCMAP ({@link WCMAP.Incremental}) được cộng/trừ theo từng phiên chèn/hết hạn;
+ * - IdList của mọi item, thêm (cid, pos) khi chèn và xóa theo CID khi hết hạn, cùng trọng số F1 của
+ *   từng item (chỉ tính lại cho các item của phiên vừa thay đổi);
+ * - cây kết quả: mỗi nút là một pattern đã khai phá, kèm tổng trọng số tuyệt đối, số phiên chứa nó và
+ *   các nút con (pattern nối thêm một item).
+ *
+ * Trọng số của một pattern và của mọi pattern nối dài từ nó chỉ đổi khi có phiên chèn/hết hạn chứa nó.
+ * Khi làm mới, cây được duyệt lại từ F1: một nút mà không phiên thay đổi nào chứa (IdList mới không có
+ * phiên vừa chèn và số phiên không đổi) được giữ nguyên cả cây con, chỉ các nút bị chạm mới được mở
+ * rộng lại ({@link EqClass#expandMember}). Mỗi nút được khai phá ở ngưỡng sàn minWs * (1 - slack), nên
+ * khi tổng trọng số cửa sổ giảm (ngưỡng tuyệt đối giảm theo) cây con không bị chạm vẫn đủ, cho tới khi
+ * ngưỡng hiện tại xuống dưới ngưỡng sàn cao nhất trong cây con đó.
+ *
+ * Lợi ích tùy dữ liệu: với alphabet nhỏ, mỗi lô chạm gần như mọi 1-class và các pattern ngắn, nên phần
+ * lớn cây ở các mức nông vẫn phải mở rộng lại; phần được giữ chủ yếu là các pattern dài, hiếm. Khi lô
+ * thay đổi chiếm phần lớn cửa sổ, làm mới tốn gần bằng khai phá lại từ đầu (cộng chi phí duyệt cây).
+ *
+ * CID nội bộ là số thứ tự chèn (luôn tăng, nên IdList chỉ cần nối thêm và vẫn đã sắp xếp); khi hết chỗ
+ * trong mảng trọng số, các phiên trong cửa sổ được đánh số lại (giữ thứ tự) và IdList/WCMAP được dựng
+ * lại từ cửa sổ (đồng thời xóa sai số tích lũy của WCMAP). Không an toàn khi gọi từ nhiều thread.
+ */
+public class SlidingWindowCompactSpade {
+
+    private static final class Session {
+        int id;              // CID nội bộ
+        final int[] items;
+        final double weight;
+        boolean expired;
+
+        Session(int id, int[] items, double weight) {
+            this.id = id;
+            this.items = items;
+            this.weight = weight;
+        }
+    }
+
+    /** Một pattern đã khai phá cùng cây con của nó. */
+    private static final class Node {
+        final List<String> pattern;
+        final double weight;                // tổng trọng số các phiên chứa pattern
+        final int sessions;                 // số phiên chứa pattern
+        double floorWeight;                 // ngưỡng tuyệt đối cao nhất mà cây con đã được khai phá
+        final Map<Integer, Node> children = new HashMap<>(); // item nối thêm -> nút con
+
+        Node(List<String> pattern, double weight, int sessions, double floorWeight) {
+            this.pattern = pattern;
+            this.weight = weight;
+            this.sessions = sessions;
+            this.floorWeight = floorWeight;
+        }
+    }
+
+    private final int windowSize;
+    private final double minWs;
+    private final double slack;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private EncodedCDB dict; // chỉ mang từ điển, để giải mã pattern
+
+    private final ArrayDeque<Session> window = new ArrayDeque<>();
+    private int nextId;
+    private double[] weights = new double[16];       // CID nội bộ -> trọng số
+    private CompactIdList[] itemLists = new CompactIdList[16];
+    private double[] itemWeight = new double[16];    // item -> tổng trọng số các phiên chứa nó
+    private int[] itemSessions = new int[16];        // item -> số phiên chứa nó
+    private final WCMAP.Incremental pairs = new WCMAP.Incremental();
+
+    private final Map<Integer, Node> roots = new HashMap<>();
+    private final BitSet affected = new BitSet();    // item của các phiên thay đổi từ lần làm mới trước
+    private Session firstInserted;                   // phiên chèn đầu tiên kể từ lần làm mới trước
+    private Set<List<String>> result = Collections.emptySet();
+    private boolean dirty;
+    private int lastRemined;
+    private int lastExpanded;
+
+    // Trạng thái của một lần làm mới
+    private double total, floorWs, thresholdWeight;
+    private int newSince;                            // CID nhỏ nhất của các phiên chèn kể từ lần làm mới trước
+    private WCMAP wcmap;                             // snapshot WCMAP, chỉ lấy khi có nút phải mở rộng lại
+
+    public SlidingWindowCompactSpade(int windowSize, double minWs) { this(windowSize, minWs, 0.1); }
+
+    public SlidingWindowCompactSpade(int windowSize, double minWs, double slack) {
+        if (windowSize <= 0) throw new IllegalArgumentException("windowSize phải dương: " + windowSize);
+        this.windowSize = windowSize;
+        this.minWs = minWs;
+        this.slack = slack;
+    }
+
+    public String name() {
+        return "SlidingWindow-Compact-SPADE(" + windowSize + ")";
+    }
+
+    /** Thêm một phiên vào cửa sổ; phiên cũ nhất hết hạn nếu cửa sổ đã đầy. */
+    public void insert(Clickstream row) {
+        if (window.size() == windowSize) expireOldest();
+        if (nextId == weights.length) rebase();
+
+        int[] items = new int[row.seq().size()];
+        for (int i = 0; i < items.length; i++) items[i] = id(row.seq().get(i));
+        Session s = new Session(nextId++, items, row.weight());
+        window.addLast(s);
+        if (firstInserted == null) firstInserted = s;
+        weights[s.id] = s.weight;
+        for (int pos = 0; pos < items.length; pos++) itemLists[items[pos]].add(s.id, pos);
+        pairs.add(items, s.weight);
+        touch(items);
+    }
+
+    /** Cho phiên cũ nhất hết hạn (không làm gì nếu cửa sổ rỗng). */
+    public void expireOldest() {
+        Session s = window.pollFirst();
+        if (s == null) return;
+        s.expired = true;
+        for (int x : s.items) itemLists[x].removeCid(s.id); // removeCid bỏ qua nếu đã xóa
+        pairs.remove(s.items, s.weight);
+        weights[s.id] = 0.0;
+        touch(s.items);
+    }
+
+    public int size() { return window.size(); }
+
+    /** Số 1-class phải khai phá lại (không giữ nguyên được cả cây con) ở lần làm mới gần nhất. */
+    public int lastRemined() { return lastRemined; }
+
+    /** Số nút (pattern) phải mở rộng lại ở lần làm mới gần nhất. */
+    public int lastExpanded() { return lastExpanded; }
+
+    /** Các pattern phổ biến (weighted support >= minWs) của cửa sổ hiện tại. */
+    public Set<List<String>> patterns() {
+        if (dirty) refresh();
+        return result;
+    }
+
+    private int id(String item) {
+        Integer id = ids.get(item);
+        if (id != null) return id;
+        int x = dictionary.size();
+        ids.put(item, x);
+        dictionary.add(item);
+        dict = null;
+        if (x == itemLists.length) {
+            itemLists = Arrays.copyOf(itemLists, x * 2);
+            itemWeight = Arrays.copyOf(itemWeight, x * 2);
+            itemSessions = Arrays.copyOf(itemSessions, x * 2);
+        }
+        itemLists[x] = new CompactIdList();
+        return x;
+    }
+
+    private void touch(int[] items) {
+        for (int x : items) affected.set(x);
+        dirty = true;
+    }
+
+    /** Đánh số lại các phiên trong cửa sổ từ 0 (giữ thứ tự) và dựng lại IdList, WCMAP từ cửa sổ. */
+    private void rebase() {
+        weights = new double[Math.max(16, 2 * (window.size() + 1))];
+        for (int x = 0; x < dictionary.size(); x++) itemLists[x] = new CompactIdList();
+        pairs.clear();
+        nextId = 0;
+        for (Session s : window) {
+            s.id = nextId++;
+            weights[s.id] = s.weight;
+            for (int pos = 0; pos < s.items.length; pos++) itemLists[s.items[pos]].add(s.id, pos);
+            pairs.add(s.items, s.weight);
+        }
+    }
+
+    private void refresh() {
+        dirty = false;
+        lastRemined = 0;
+        lastExpanded = 0;
+        if (window.isEmpty()) {
+            roots.clear();
+            affected.clear();
+            firstInserted = null;
+            result = Collections.emptySet();
+            return;
+        }
+        if (dict == null) {
+            // EncodedCDB không có dòng nào, chỉ dùng từ điển để giải mã pattern
+            dict = new EncodedCDB(dictionary.toArray(new String[0]), new int[0], new double[0], new int[1], new int[0]);
+        }
+        // Cùng cách cộng như CDB(rows) để support khớp với khai phá lại từ đầu
+        total = window.stream().mapToDouble(s -> s.weight).sum();
+        floorWs = minWs * (1 - slack);
+        thresholdWeight = minWs * total;
+        wcmap = null;
+        // Phiên chèn từ lần làm mới trước là các phiên có CID >= newSince (CID tăng theo thứ tự chèn, kể cả
+        // sau rebase); nếu phiên chèn đầu tiên đã hết hạn thì mọi phiên trong cửa sổ đều mới
+        newSince = firstInserted == null ? Integer.MAX_VALUE
+                : firstInserted.expired ? Integer.MIN_VALUE : firstInserted.id;
+
+        // F1 ở ngưỡng sàn: lớp gốc, làm đối tác join khi mở rộng lại một 1-class. Chỉ item của các phiên
+        // vừa thay đổi mới phải tính lại trọng số.
+        for (int x = affected.nextSetBit(0); x >= 0; x = affected.nextSetBit(x + 1)) {
+            int[] cids = itemLists[x].cids();
+            itemWeight[x] = weightOf(cids);
+            itemSessions[x] = cids.length;
+        }
+        EqClass root = new EqClass();
+        for (int x = 0; x < dictionary.size(); x++) {
+            double w = itemWeight[x];
+            if (itemSessions[x] > 0 && w > 0 && w / total >= floorWs) root.add(new int[]{x}, itemLists[x]);
+        }
+
+        Map<Integer, Node> kept = new HashMap<>();
+        Set<List<String>> out = new LinkedHashSet<>();
+        for (int i = 0; i < root.size(); i++) {
+            int x = root.pattern(i)[0];
+            Node old = roots.get(x);
+            Node n = visit(root, i, old, itemWeight[x], itemSessions[x], affected.get(x));
+            if (n != old) lastRemined++;
+            kept.put(x, n);
+            collect(n, out);
+        }
+        roots.clear();
+        roots.putAll(kept);
+        affected.clear();
+        firstInserted = null;
+        wcmap = null;
+        result = Collections.unmodifiableSet(out);
+    }
+
+    /**
+     * Nút của thành viên k của lớp c: giữ nguyên old (cả cây con) nếu không phiên thay đổi nào chứa pattern
+     * và cây con đã được khai phá ở ngưỡng không cao hơn ngưỡng hiện tại; ngược lại mở rộng lại thành viên
+     * này và duyệt tiếp các nút con.
+     */
+    private Node visit(EqClass c, int k, Node old, double weight, int sessions, boolean touched) {
+        if (old != null && !touched && old.floorWeight * (1 + 1e-9) <= thresholdWeight) return old;
+        lastExpanded++;
+        Node n = new Node(old != null ? old.pattern : dict.decode(c.pattern(k)), weight, sessions, floorWs * total);
+        if (wcmap == null) wcmap = pairs.snapshot(dict, total);
+        EqClass next = c.expandMember(k, dict, null, weights, total, wcmap, floorWs);
+        if (next == null) return n;
+        for (int j = 0; j < next.size(); j++) {
+            int[] p = next.pattern(j);
+            int x = p[p.length - 1];
+            int[] cids = next.idList(j).cids();
+            Node oldChild = old == null ? null : old.children.get(x);
+            boolean childTouched = oldChild == null || cids.length != oldChild.sessions
+                    || (cids.length > 0 && cids[cids.length - 1] >= newSince);
+            Node child = visit(next, j, oldChild, weightOf(cids), cids.length, childTouched);
+            n.children.put(x, child);
+            n.floorWeight = Math.max(n.floorWeight, child.floorWeight);
+        }
+        return n;
+    }
+
+    /** Thêm các pattern của cây con đạt minWs ở cửa sổ hiện tại vào out. */
+    private void collect(Node n, Set<List<String>> out) {
+        if (n.weight > 0 && n.weight / total >= minWs) out.add(n.pattern);
+        for (Node child : n.children.values()) collect(child, out);
+    }
+
+    /** Tổng trọng số các CID, cộng theo thứ tự CID như calculateSupport. */
+    private double weightOf(int[] cids) {
+        double sum = 0.0;
+        for (int cid : cids) sum += weights[cid];
+        return sum;
+    }
+}
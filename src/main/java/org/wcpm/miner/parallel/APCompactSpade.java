@@ -1,15 +1,33 @@
 package org.wcpm.miner.parallel;
 
 import org.wcpm.miner.PatternMiner;
+import org.wcpm.miner.PatternSink;
 import org.wcpm.model.CDB;
-import org.wcpm.util.CompactIdList;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.EqClass;
+import org.wcpm.util.MiningStats;
+import org.wcpm.util.PatternEmitter;
 import org.wcpm.util.WCMAP;
-import org.wcpm.util.Seqs; // Cần Seqs để lấy F1 cho sample
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AP-Compact-SPADE: chọn chiến lược song song thích nghi theo từng cây con.
+ *
+ * SC (tỉ lệ số join ở mức 2-3 trên tổng số join) cao nghĩa là công việc dồn ở các mức nông: chỉ cần chia
+ * một lần theo lớp rồi mỗi thread tự DFS cả cây con (kiểu HP). SC thấp nghĩa là cây sâu: nên tiếp tục
+ * tách các lớp con thành task ở mọi mức (kiểu DP). Thay vì quyết định một lần cho cả lượt chạy:
+ * <ul>
+ *   <li>SC ban đầu được ước lượng trên mẫu S gồm các item phổ biến nhất, dựng lại từ chính lớp F1
+ *       và WCMAP của lượt chạy (không quét lại CDB), và quyết định cho mức gốc;</li>
+ *   <li>sau đó mỗi lớp tự đánh giá lại SC cục bộ sau khi mở rộng, từ số join của nó và số join dự kiến
+ *       của các lớp con (theo fan-out: m(m+1)/2 cặp cho lớp con m thành viên): cao hơn cThreshold thì
+ *       các lớp con được DFS trọn vẹn (HP), ngược lại chúng tiếp tục được đánh giá và tách (DP).</li>
+ * </ul>
+ * Lớp con rẻ hơn {@link DPCompactSpade#FORK_COST} luôn được DFS ngay trong task hiện tại.
+ */
 public class APCompactSpade implements PatternMiner {
     private final int threads;
     private final double cThreshold;
@@ -21,97 +39,178 @@ public class APCompactSpade implements PatternMiner {
     public String name() { return "AP-Compact-SPADE(" + threads + ", c=" + cThreshold + ")"; }
 
     @Override
-    public Set<List<String>> mine(CDB cdb, double minWs) {
-        // --- GIAI ĐOẠN 1: LẤY MẪU VÀ ƯỚC LƯỢNG SC ---
-
-        // 1.1: Lấy mẫu S theo quy tắc của bài báo
-        List<List<String>> allOnePatterns = cdb.alphabet().stream().map(List::of).collect(Collectors.toList());
-        int sSize = Math.max(2, Math.min(50, (int) Math.ceil(allOnePatterns.size() * 0.01)));
-
-        // Sắp xếp các 1-pattern theo weighted support giảm dần
-        allOnePatterns.sort(Comparator.comparingDouble(p -> -Seqs.weightedSupport(p, cdb)));
-
-        // Tạo map F1 phổ biến CHỈ cho mẫu S
-        Map<List<String>, CompactIdList> s_f1FrequentMap = new LinkedHashMap<>();
-
-        // Chuẩn bị dữ liệu dọc cần thiết cho việc chạy trên mẫu S
-        Map<Integer, Double> cidWeights = new HashMap<>();
-        double totalWeight = cdb.totalWeight();
-        for(var r : cdb.rows()) cidWeights.put(r.cid(), r.weight());
-
-        for (int i = 0; i < Math.min(sSize, allOnePatterns.size()); i++) {
-            List<String> p = allOnePatterns.get(i);
-            // Chúng ta cần CompactIdList cho các pattern trong S
-            CompactIdList idList = new CompactIdList();
-            for(var r : cdb.rows()){
-                for(int pos=0; pos < r.seq().size(); pos++){
-                    if(r.seq().get(pos).equals(p.get(0))){
-                        idList.add(r.cid(), pos);
-                    }
-                }
+    public void mine(CDB cdb, double minWs, PatternSink sink) {
+        MiningStats.MineEvent ev = MiningStats.beginRun(name(), threads, minWs);
+
+        // --- GIAI ĐOẠN 1: CẤU TRÚC DỌC DÙNG CHUNG CHO MẪU VÀ LƯỢT CHẠY CHÍNH ---
+        WCMAP wcmap = WCMAP.build(cdb, threads);
+        EncodedCDB enc = cdb.encoded();
+        PatternEmitter F = new PatternEmitter(enc, sink);
+        double[] cidWeights = enc.denseCidWeights();
+        double totalWeight = enc.totalWeight();
+        EqClass f1 = EqClass.frequentItems(enc, cidWeights, totalWeight, minWs, F);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        LongAdder horizontal = new LongAdder(), vertical = new LongAdder();
+        try {
+            // --- GIAI ĐOẠN 2: ƯỚC LƯỢNG SC TRÊN MẪU S ---
+            double SC = pool.invoke(ForkJoinTask.adapt(
+                    () -> estimateSCOnSample(f1, enc, wcmap, minWs, cidWeights, totalWeight)));
+            boolean rootHorizontal = SC > cThreshold;
+            System.out.println("Adaptive Choice: SC = " + String.format("%.2f", SC) + ". Root uses "
+                    + (rootHorizontal ? "HP-SPADE" : "DP-SPADE"));
+
+            // --- GIAI ĐOẠN 3: KHAI PHÁ, CHIẾN LƯỢC ĐƯỢC ĐÁNH GIÁ LẠI Ở TỪNG LỚP ---
+            if (!f1.isEmpty()) {
+                pool.invoke(new AdaptiveTask(f1, rootHorizontal, false, F, enc, cidWeights, totalWeight,
+                        wcmap, minWs, cThreshold, horizontal, vertical));
             }
-            idList.sort();
-            s_f1FrequentMap.put(p, idList);
-        }
-
-        // 1.2: Chạy DP-SPADE trên mẫu S và đếm join để tính SC
-        double SC = estimateSCByRunningOnSample(s_f1FrequentMap, cdb, minWs, cidWeights, totalWeight);
-
-        // 1.3: Ra quyết định
-        boolean useHorizontal = SC > cThreshold;
-        System.out.println("Adaptive Choice: SC = " + String.format("%.2f", SC) + ". Using " + (useHorizontal ? "HP-SPADE" : "DP-SPADE"));
-
-        // --- GIAI ĐOẠN 2: CHẠY THUẬT TOÁN ĐÃ CHỌN TRÊN TOÀN BỘ DỮ LIỆU ---
-        if (useHorizontal) {
-            // HP-SPADE hoạt động tốt hơn với phiên bản quét lại DB (horizontal)
-            return new HPCompactSpade(threads).mine(cdb, minWs);
-        } else {
-            // DP-SPADE hoạt động tốt hơn với phiên bản vertical (dùng CompactIdList)
-            return new DPCompactSpade(threads).mine(cdb, minWs);
+        } finally {
+            pool.shutdown();
         }
+        MiningStats.recordAdaptive(horizontal.sum(), vertical.sum());
+        MiningStats.endRun(ev, F.finish());
     }
 
     /**
-     * Chạy một phiên bản thu nhỏ của DP-SPADE trên mẫu S để đếm số lần join thực tế.
+     * Chạy DP-SPADE thu nhỏ trên mẫu S (các item phổ biến nhất của F1, cùng IdList đã có) để đếm số join
+     * theo mức; SC = tỉ lệ số join tạo pattern dài 2 và 3.
      */
-    private double estimateSCByRunningOnSample(Map<List<String>, CompactIdList> s_f1Map, CDB cdb, double minWs,
-                                               Map<Integer, Double> cidWeights, double totalWeight) {
-        if (s_f1Map.isEmpty()) return 0.0;
+    private double estimateSCOnSample(EqClass f1, EncodedCDB enc, WCMAP wcmap, double minWs,
+                                      double[] cidWeights, double totalWeight) {
+        if (f1.isEmpty()) return 0.0;
+        // 1.1: Lấy mẫu S theo quy tắc của bài báo
+        int sSize = Math.max(2, Math.min(50, (int) Math.ceil(enc.alphabetSize() * 0.01)));
+
+        // Sắp xếp các thành viên F1 theo weighted support giảm dần (support đã được IdList lưu sẵn)
+        Integer[] order = new Integer[f1.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble(i -> -f1.idList(i).calculateSupport(cidWeights, totalWeight)));
+        int[] picked = new int[Math.min(sSize, order.length)];
+        for (int k = 0; k < picked.length; k++) picked[k] = order[k];
+        Arrays.sort(picked); // giữ thứ tự id như lớp F1
 
-        WCMAP wcmap = WCMAP.build(cdb); // Vẫn cần WCMAP để cắt tỉa
-        ForkJoinPool estimationPool = new ForkJoinPool(threads);
+        EqClass s_f1 = new EqClass();
+        for (int i : picked) s_f1.add(f1.pattern(i), f1.idList(i));
 
         // Mảng để lưu số join ở các cấp độ: joinCounts[k] = số join tạo ra pattern dài k+1
-        long[] joinCounts = new long[100]; // Giả sử pattern không dài quá 100
+        // (LongAdder: các task cộng song song không phải tranh một khóa chung)
+        LongAdder[] joinCounts = new LongAdder[100]; // Giả sử pattern không dài quá 100
+        for (int k = 0; k < joinCounts.length; k++) joinCounts[k] = new LongAdder();
 
-        JoinCountingTask rootTask = new JoinCountingTask(s_f1Map, wcmap, minWs, cidWeights, totalWeight, joinCounts);
-        estimationPool.invoke(rootTask);
-        estimationPool.shutdown();
+        new JoinCountingTask(s_f1, enc, wcmap, minWs, cidWeights, totalWeight, joinCounts).invoke();
 
-        long join1_to_3 = joinCounts[1] + joinCounts[2]; // join tạo pattern dài 2 và 3
+        long join1_to_3 = joinCounts[1].sum() + joinCounts[2].sum(); // join tạo pattern dài 2 và 3
         long totalJoins = 0;
-        for (long count : joinCounts) {
-            totalJoins += count;
+        for (LongAdder count : joinCounts) {
+            totalJoins += count.sum();
         }
 
         if (totalJoins == 0) return 0.0;
         return (double) join1_to_3 / totalJoins;
     }
 
+    /** Số cặp (i, j), j >= i, mà một lớp n thành viên phải join. */
+    private static long pairs(long n) {
+        return n * (n + 1) / 2;
+    }
+
+    /**
+     * Task trên một lớp tương đương. horizontal = true: cả cây con được DFS trong task này (HP).
+     * Ngược lại lớp được mở rộng (song song theo khối hàng nếu đủ lớn), rồi SC cục bộ quyết định
+     * các lớp con được tách thành task DP hay DFS trọn vẹn kiểu HP.
+     */
+    static class AdaptiveTask extends RecursiveAction {
+        private final EqClass eqClass;
+        private final boolean childrenHorizontal; // chỉ dùng cho lớp gốc: quyết định từ mẫu S
+        private final boolean horizontal;
+        private final PatternEmitter F;
+        private final EncodedCDB enc;
+        private final double[] cidWeights;
+        private final double totalWeight;
+        private final WCMAP wcmap;
+        private final double minWs;
+        private final double cThreshold;
+        private final LongAdder horizontalCount, verticalCount;
+
+        AdaptiveTask(EqClass eqClass, boolean childrenHorizontal, boolean horizontal, PatternEmitter F,
+                     EncodedCDB enc, double[] cidWeights, double totalWeight, WCMAP wcmap, double minWs,
+                     double cThreshold, LongAdder horizontalCount, LongAdder verticalCount) {
+            this.eqClass = eqClass;
+            this.childrenHorizontal = childrenHorizontal;
+            this.horizontal = horizontal;
+            this.F = F;
+            this.enc = enc;
+            this.cidWeights = cidWeights;
+            this.totalWeight = totalWeight;
+            this.wcmap = wcmap;
+            this.minWs = minWs;
+            this.cThreshold = cThreshold;
+            this.horizontalCount = horizontalCount;
+            this.verticalCount = verticalCount;
+        }
+
+        @Override
+        protected void compute() {
+            MiningStats.TaskEvent task = MiningStats.beginTask("AP-Compact-SPADE", eqClass.pattern(0).length);
+            if (horizontal) {
+                horizontalCount.increment();
+                dfsExtend(eqClass);
+                MiningStats.endTask(task);
+                return;
+            }
+            verticalCount.increment();
+            List<EqClass> next = eqClass.expand(enc, F, null, cidWeights, totalWeight, wcmap, minWs, true);
+
+            // SC cục bộ: phần join của mức này so với mức này + mức con (ước lượng theo fan-out)
+            boolean childHorizontal;
+            if (eqClass.pattern(0).length == 1) {
+                childHorizontal = childrenHorizontal;
+            } else {
+                long here = pairs(eqClass.size()), below = 0;
+                for (EqClass c : next) below += pairs(c.size());
+                childHorizontal = here + below == 0 || (double) here / (here + below) > cThreshold;
+            }
+
+            List<AdaptiveTask> forked = new ArrayList<>();
+            List<EqClass> small = new ArrayList<>();
+            for (EqClass c : next) {
+                if (c.joinCost() >= DPCompactSpade.FORK_COST) {
+                    AdaptiveTask t = new AdaptiveTask(c, false, childHorizontal, F, enc, cidWeights, totalWeight,
+                            wcmap, minWs, cThreshold, horizontalCount, verticalCount);
+                    t.fork();
+                    forked.add(t);
+                } else {
+                    small.add(c);
+                }
+            }
+            for (EqClass c : small) dfsExtend(c);
+            MiningStats.endTask(task);
+            for (int k = forked.size() - 1; k >= 0; k--) forked.get(k).join();
+        }
+
+        private void dfsExtend(EqClass c) {
+            for (EqClass next : c.expand(enc, F, null, cidWeights, totalWeight, wcmap, minWs)) dfsExtend(next);
+            c.release();
+        }
+    }
+
     /**
      * Một RecursiveAction chuyên dụng chỉ để đếm join, không lưu kết quả.
      */
     static class JoinCountingTask extends RecursiveAction {
-        private final Map<List<String>, CompactIdList> currentEqClass;
+        private final EqClass currentEqClass;
+        private final EncodedCDB enc;
         private final WCMAP wcmap;
         private final double minWs;
-        private final Map<Integer, Double> cidWeights;
+        private final double[] cidWeights;
         private final double totalWeight;
-        private final long[] joinCounts; // Mảng chung để các task cùng cập nhật
+        private final LongAdder[] joinCounts; // Mảng chung để các task cùng cập nhật
 
-        JoinCountingTask(Map<List<String>, CompactIdList> eqClass, WCMAP wcmap, double minWs,
-                         Map<Integer, Double> cidWeights, double totalWeight, long[] joinCounts) {
+        JoinCountingTask(EqClass eqClass, EncodedCDB enc, WCMAP wcmap, double minWs,
+                         double[] cidWeights, double totalWeight, LongAdder[] joinCounts) {
             this.currentEqClass = eqClass;
+            this.enc = enc;
             this.wcmap = wcmap;
             this.minWs = minWs;
             this.cidWeights = cidWeights;
@@ -123,59 +222,21 @@ public class APCompactSpade implements PatternMiner {
         protected void compute() {
             if (currentEqClass.isEmpty()) return;
 
-            int currentPatternLength = currentEqClass.keySet().iterator().next().size();
+            int currentPatternLength = currentEqClass.pattern(0).length;
             if (currentPatternLength >= joinCounts.length - 1) return; // Tránh tràn mảng
 
-            Map<List<String>, Map<List<String>, CompactIdList>> nextLevelEqClasses = new LinkedHashMap<>();
-            List<Map.Entry<List<String>, CompactIdList>> patterns = new ArrayList<>(currentEqClass.entrySet());
-            int n = patterns.size();
-
-            for (int i = 0; i < n; i++) {
-                for (int j = i; j < n; j++) {
-                    // Mỗi cặp (i, j) là một lần "join" ở cấp độ hiện tại
-                    synchronized (joinCounts) {
-                        joinCounts[currentPatternLength -1]++;
-                    }
-
-                    var p1 = patterns.get(i).getKey();
-                    var list1 = patterns.get(i).getValue();
-                    var p2 = patterns.get(j).getKey();
-                    var list2 = patterns.get(j).getValue();
-
-                    var cands = (p1.equals(p2)) ? List.of(append(p1, p1.get(p1.size()-1))) : List.of(append(p1, p2.get(p2.size()-1)), append(p2, p1.get(p1.size()-1)));
-
-                    for(var cand : cands){
-                        if (cand.size() >= 2) {
-                            String x = cand.get(cand.size() - 2);
-                            String y = cand.get(cand.size() - 1);
-                            if (wcmap.get(x, y) < minWs) continue;
-                        }
-                        CompactIdList candList;
-                        if (p1.equals(p2)) candList = list1.join(list1, CompactIdList.JoinType.I_STEP);
-                        else if (cand.equals(append(p1, p2.get(p2.size()-1)))) candList = list1.join(list2, CompactIdList.JoinType.S_STEP);
-                        else candList = list2.join(list1, CompactIdList.JoinType.S_STEP);
-
-                        if (candList.calculateSupport(cidWeights, totalWeight) >= minWs) {
-                            List<String> newPrefix = cand.subList(0, cand.size() - 1);
-                            nextLevelEqClasses.computeIfAbsent(newPrefix, k -> new HashMap<>()).put(cand, candList);
-                        }
-                    }
-                }
-            }
+            // Mỗi cặp (i, j) với j >= i là một lần "join" ở cấp độ hiện tại
+            joinCounts[currentPatternLength - 1].add(pairs(currentEqClass.size()));
+
+            List<EqClass> nextLevelEqClasses = currentEqClass.expand(enc, null, cidWeights, totalWeight, wcmap, minWs);
 
             if (!nextLevelEqClasses.isEmpty()) {
                 List<JoinCountingTask> subTasks = new ArrayList<>();
-                for (var nextClass : nextLevelEqClasses.values()) {
-                    subTasks.add(new JoinCountingTask(nextClass, wcmap, minWs, cidWeights, totalWeight, joinCounts));
+                for (var nextClass : nextLevelEqClasses) {
+                    subTasks.add(new JoinCountingTask(nextClass, enc, wcmap, minWs, cidWeights, totalWeight, joinCounts));
                 }
                 invokeAll(subTasks);
             }
         }
-
-        private static List<String> append(List<String> p, String x) {
-            var r = new ArrayList<>(p);
-            r.add(x);
-            return r;
-        }
     }
 }
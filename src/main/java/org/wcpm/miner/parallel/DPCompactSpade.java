@@ -1,74 +1,143 @@
 package org.wcpm.miner.parallel;
 
-import org.wcpm.miner.PatternMiner;
+import org.wcpm.miner.TopKPatternMiner;
+import org.wcpm.miner.PatternSink;
 import org.wcpm.model.CDB;
-import org.wcpm.util.CompactIdList;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.EqClass;
+import org.wcpm.util.MiningStats;
+import org.wcpm.util.PatternEmitter;
+import org.wcpm.util.SpillStore;
+import org.wcpm.util.TopK;
 import org.wcpm.util.WCMAP;
 
 import java.util.*;
 import java.util.concurrent.*;
 
-public class DPCompactSpade implements PatternMiner {
+public class DPCompactSpade implements TopKPatternMiner {
+
+    /** Cách phân phối các lớp tương đương cho worker. */
+    public enum Scheduler {
+        /**
+         * Mỗi ExpandTask fork thẳng các lớp con "đắt" vào ForkJoinPool (worker rảnh tự steal),
+         * các lớp con rẻ hơn {@link #FORK_COST} được duyệt DFS ngay trong task hiện tại.
+         */
+        WORK_STEALING,
+        /**
+         * Cách cũ: task đẩy lớp con vào hàng đợi giới hạn qFactor * threads, một thread điều phối
+         * poll hàng đợi và giao lại cho pool; hàng đợi đầy thì task tự xử lý.
+         */
+        BALANCER
+    }
+
+    /**
+     * Ngưỡng chi phí ({@link EqClass#joinCost()}) để tách một lớp con thành task riêng: nhỏ hơn
+     * thì chi phí fork/steal không đáng so với phần join của cả cây con.
+     */
+    static final long FORK_COST = 1L << 14;
+
     private final int threads;
     private final int qFactor;
+    private final EqClass.Storage storage;
+    private final EqClass.Output output;
+    private final Scheduler scheduler;
 
     public DPCompactSpade(int threads) { this(threads, 3); }
-    public DPCompactSpade(int threads, int qFactor) { this.threads = threads; this.qFactor = qFactor; }
+    public DPCompactSpade(int threads, Scheduler scheduler) {
+        this(threads, 3, EqClass.Storage.TIDSET, EqClass.Output.ALL, scheduler);
+    }
+    public DPCompactSpade(int threads, int qFactor) { this(threads, qFactor, EqClass.Storage.TIDSET); }
+    public DPCompactSpade(int threads, int qFactor, EqClass.Storage storage) {
+        this(threads, qFactor, storage, EqClass.Output.ALL);
+    }
+    public DPCompactSpade(int threads, int qFactor, EqClass.Storage storage, EqClass.Output output) {
+        this(threads, qFactor, storage, output, Scheduler.WORK_STEALING);
+    }
+    /** qFactor chỉ dùng với Scheduler.BALANCER. */
+    public DPCompactSpade(int threads, int qFactor, EqClass.Storage storage, EqClass.Output output,
+                          Scheduler scheduler) {
+        this.threads = threads;
+        this.qFactor = qFactor;
+        this.storage = storage;
+        this.output = output;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public String name() {
+        return "DP-Compact-SPADE(" + threads
+                + (storage == EqClass.Storage.TIDSET ? "" : ", " + storage)
+                + (output == EqClass.Output.ALL ? "" : ", " + output)
+                + (scheduler == Scheduler.WORK_STEALING ? "" : ", " + scheduler) + ")";
+    }
 
     @Override
-    public String name() { return "DP-Compact-SPADE(" + threads + ")"; }
+    public void mine(CDB cdb, double minWs, PatternSink sink) {
+        MiningStats.MineEvent ev = MiningStats.beginRun(name(), threads, minWs);
+        // Mỗi worker ghi vào bộ đệm riêng, giao cho sink theo lô
+        PatternEmitter F = new PatternEmitter(cdb.encoded(), sink);
+        run(cdb, minWs, F, null);
+        MiningStats.endRun(ev, F.finish());
+    }
 
+    /**
+     * Top-k: các ExpandTask dùng chung một bộ gom TopK, ngưỡng của nó được đọc không khóa
+     * trước mỗi phép join nên cả task đang chạy lẫn task còn trong hàng đợi đều cắt tỉa theo cận mới nhất.
+     */
     @Override
-    public Set<List<String>> mine(CDB cdb, double minWs) {
+    public Set<List<String>> mineTopK(CDB cdb, int k) {
+        if (output != EqClass.Output.ALL)
+            throw new UnsupportedOperationException("Top-k chỉ hỗ trợ Output.ALL, không hỗ trợ " + output);
+        TopK top = new TopK(k);
+        MiningStats.MineEvent ev = MiningStats.beginRun(name(), threads, 0.0);
+        run(cdb, 0.0, null, top);
+        Set<List<String>> result = top.result();
+        MiningStats.endRun(ev, result.size());
+        return result;
+    }
+
+    private void run(CDB cdb, double minWs, PatternEmitter F, TopK top) {
         // --- GIAI ĐOẠN 1: CHUẨN BỊ (Vẫn chạy tuần tự) ---
-        WCMAP wcmap = WCMAP.build(cdb);
+        WCMAP wcmap = WCMAP.build(cdb, threads);
 
         // Quét CDB 1 lần duy nhất để lấy dữ liệu dọc
-        Map<Integer, Double> cidWeights = new HashMap<>();
-        double totalWeight = cdb.totalWeight();
-        Map<String, CompactIdList> f1RawMap = new HashMap<>();
-        for (var r : cdb.rows()) {
-            cidWeights.put(r.cid(), r.weight());
-            var s = r.seq();
-            for (int i = 0; i < s.size(); i++) {
-                String item = s.get(i);
-                f1RawMap.computeIfAbsent(item, k -> new CompactIdList()).add(r.cid(), i);
-            }
-        }
+        EncodedCDB enc = cdb.encoded();
+        double[] cidWeights = enc.denseCidWeights();
+        double totalWeight = enc.totalWeight();
 
         // Tìm F1 phổ biến
-        Map<List<String>, CompactIdList> f1FrequentMap = new LinkedHashMap<>();
-        // Dùng tập hợp an toàn cho thread để lưu kết quả cuối cùng
-        Set<List<String>> F = ConcurrentHashMap.newKeySet();
-
-        for (var entry : f1RawMap.entrySet()) {
-            CompactIdList idList = entry.getValue();
-            idList.sort();
-            double ws = idList.calculateSupport(cidWeights, totalWeight);
-            if (ws >= minWs) {
-                var p = List.of(entry.getKey());
-                f1FrequentMap.put(p, idList);
-                F.add(p);
+        EqClass f1 = EqClass.frequentItems(enc, cidWeights, totalWeight, minWs, F, storage, output);
+        if (top != null) f1.offerTo(top, enc, cidWeights, totalWeight);
+
+        // --- GIAI ĐOẠN 2: KHAI PHÁ SONG SONG ---
+        if (scheduler == Scheduler.WORK_STEALING) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try (SpillStore spill = SpillStore.fromSystemProperties()) {
+                if (!f1.isEmpty()) {
+                    pool.invoke(new StealTask(spill.park(f1), spill, F, top, enc, cidWeights, totalWeight, wcmap, minWs));
+                }
+            } finally {
+                pool.shutdown();
             }
+            return;
         }
 
-        // --- GIAI ĐOẠN 2: KHAI PHÁ SONG SONG ---
         int qmax = qFactor * threads;
-        // Hàng đợi bây giờ chứa các "Lớp Tương đương", là Map<Pattern, IdList>
-        LinkedBlockingQueue<Map<List<String>, CompactIdList>> Q = new LinkedBlockingQueue<>(qmax);
+        // Hàng đợi chứa các "Lớp Tương đương" (pattern + IdList)
+        LinkedBlockingQueue<EqClass> Q = new LinkedBlockingQueue<>(qmax);
         ForkJoinPool pool = new ForkJoinPool(threads);
 
         // Đưa tác vụ đầu tiên (toàn bộ F1) vào hàng đợi
-        Q.offer(f1FrequentMap);
+        Q.offer(f1);
 
         // Balancer thread để điều phối tác vụ
         Runnable balancer = () -> {
             try {
                 // Chạy cho đến khi pool không còn task nào hoạt động VÀ hàng đợi trống
                 while (!pool.isQuiescent() || !Q.isEmpty()) {
-                    Map<List<String>, CompactIdList> eqClass = Q.poll(100, TimeUnit.MILLISECONDS);
+                    EqClass eqClass = Q.poll(100, TimeUnit.MILLISECONDS);
                     if (eqClass != null && !eqClass.isEmpty()) {
-                        pool.execute(new ExpandTask(eqClass, F, cidWeights, totalWeight, wcmap, minWs, Q));
+                        pool.execute(new ExpandTask(eqClass, F, top, enc, cidWeights, totalWeight, wcmap, minWs, Q));
                     }
                 }
             } catch (InterruptedException ignored) {
@@ -85,24 +154,89 @@ public class DPCompactSpade implements PatternMiner {
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        return F;
     }
 
-    // Task đệ quy, bây giờ sử dụng CompactIdList
+    /**
+     * Task của chế độ WORK_STEALING: mở rộng một lớp, fork các lớp con có chi phí từ FORK_COST trở lên
+     * (đẩy vào deque của worker hiện tại, worker khác rảnh sẽ steal), tự duyệt DFS các lớp con rẻ,
+     * rồi mới join các task đã fork. Không có hàng đợi trung tâm hay thread điều phối.
+     * Lớp của task đã fork nhưng chưa chạy (và các lớp con rẻ chờ DFS) nằm trong SpillStore, nên có thể
+     * bị đẩy ra đĩa khi vượt ngân sách bộ nhớ.
+     */
+    static class StealTask extends RecursiveAction {
+        private SpillStore.Pending pending;
+        private final SpillStore spill;
+        private final PatternEmitter F;
+        private final TopK top;
+        private final EncodedCDB enc;
+        private final double[] cidWeights;
+        private final double totalWeight;
+        private final WCMAP wcmap;
+        private final double minWs;
+
+        StealTask(SpillStore.Pending pending, SpillStore spill, PatternEmitter F, TopK top, EncodedCDB enc,
+                  double[] cidWeights, double totalWeight, WCMAP wcmap, double minWs) {
+            this.pending = pending;
+            this.spill = spill;
+            this.F = F;
+            this.top = top;
+            this.enc = enc;
+            this.cidWeights = cidWeights;
+            this.totalWeight = totalWeight;
+            this.wcmap = wcmap;
+            this.minWs = minWs;
+        }
+
+        @Override
+        protected void compute() {
+            EqClass eqClass = spill.take(pending);
+            pending = null;
+            MiningStats.TaskEvent task = MiningStats.beginTask("DP-Compact-SPADE", eqClass.pattern(0).length);
+            List<StealTask> forked = new ArrayList<>();
+            List<SpillStore.Pending> small = new ArrayList<>();
+            // Lớp lớn (nhất là lớp gốc F1) tự chia vòng join thành các khối hàng song song
+            // (trừ khi có ngân sách bộ nhớ: khi đó các lớp con được dựng lần lượt và gửi ngay)
+            for (SpillStore.Pending next : eqClass.expand(enc, F, top, cidWeights, totalWeight, wcmap, minWs, true, spill)) {
+                if (next.joinCost() >= FORK_COST) {
+                    StealTask t = new StealTask(next, spill, F, top, enc, cidWeights, totalWeight, wcmap, minWs);
+                    t.fork();
+                    forked.add(t);
+                } else {
+                    small.add(next);
+                }
+            }
+            for (int k = 0; k < small.size(); k++) dfsExtend(spill.take(small.set(k, null)));
+            MiningStats.endTask(task);
+            // Join theo thứ tự ngược lúc fork: task fork sau cùng nằm ở đỉnh deque, thường chưa bị steal
+            for (int k = forked.size() - 1; k >= 0; k--) forked.get(k).join();
+        }
+
+        private void dfsExtend(EqClass c) {
+            List<SpillStore.Pending> next = c.expand(enc, F, top, cidWeights, totalWeight, wcmap, minWs, false, spill);
+            for (int k = 0; k < next.size(); k++) dfsExtend(spill.take(next.set(k, null)));
+            c.release();
+        }
+    }
+
+    // Task đệ quy trên một lớp tương đương (Scheduler.BALANCER)
     static class ExpandTask extends RecursiveAction {
-        private final Map<List<String>, CompactIdList> currentEqClass;
-        private final Set<List<String>> F;
-        private final Map<Integer, Double> cidWeights;
+        private final EqClass currentEqClass;
+        private final PatternEmitter F;
+        private final TopK top;
+        private final EncodedCDB enc;
+        private final double[] cidWeights;
         private final double totalWeight;
         private final WCMAP wcmap;
         private final double minWs;
-        private final LinkedBlockingQueue<Map<List<String>, CompactIdList>> Q;
+        private final LinkedBlockingQueue<EqClass> Q;
 
-        ExpandTask(Map<List<String>, CompactIdList> currentEqClass, Set<List<String>> F,
-                   Map<Integer, Double> cidWeights, double totalWeight, WCMAP wcmap, double minWs,
-                   LinkedBlockingQueue<Map<List<String>, CompactIdList>> Q) {
+        ExpandTask(EqClass currentEqClass, PatternEmitter F, TopK top, EncodedCDB enc,
+                   double[] cidWeights, double totalWeight, WCMAP wcmap, double minWs,
+                   LinkedBlockingQueue<EqClass> Q) {
             this.currentEqClass = currentEqClass;
             this.F = F;
+            this.top = top;
+            this.enc = enc;
             this.cidWeights = cidWeights;
             this.totalWeight = totalWeight;
             this.wcmap = wcmap;
@@ -112,70 +246,22 @@ public class DPCompactSpade implements PatternMiner {
 
         @Override
         protected void compute() {
-            Map<List<String>, Map<List<String>, CompactIdList>> nextLevelEqClasses = new LinkedHashMap<>();
-            List<Map.Entry<List<String>, CompactIdList>> patterns = new ArrayList<>(currentEqClass.entrySet());
-            int n = patterns.size();
-
-            for (int i = 0; i < n; i++) {
-                for (int j = i; j < n; j++) {
-                    var p1 = patterns.get(i).getKey();
-                    var list1 = patterns.get(i).getValue();
-                    var p2 = patterns.get(j).getKey();
-                    var list2 = patterns.get(j).getValue();
-
-                    String a = p1.get(p1.size() - 1);
-                    String b = p2.get(p2.size() - 1);
-
-                    var cands = (p1.equals(p2)) ? List.of(append(p1, a)) : List.of(append(p1, b), append(p2, a));
-
-                    for (var cand : cands) {
-                        if (cand.size() >= 2) {
-                            String x = cand.get(cand.size() - 2);
-                            String y = cand.get(cand.size() - 1);
-                            if (wcmap.get(x, y) < minWs) continue;
-                        }
-
-                        CompactIdList candList;
-                        if (p1.equals(p2)) {
-                            candList = list1.join(list1, CompactIdList.JoinType.I_STEP);
-                        } else if (cand.equals(append(p1, b))) {
-                            candList = list1.join(list2, CompactIdList.JoinType.S_STEP);
-                        } else {
-                            candList = list2.join(list1, CompactIdList.JoinType.S_STEP);
-                        }
-
-                        if (candList.size() == 0) continue;
-
-                        double ws = candList.calculateSupport(cidWeights, totalWeight);
-                        if (ws >= minWs) {
-                            F.add(cand);
-                            List<String> newPrefix = cand.subList(0, cand.size() - 1);
-                            nextLevelEqClasses.computeIfAbsent(newPrefix, k -> new HashMap<>()).put(cand, candList);
-                        }
-                    }
-                }
-            }
+            // Thời gian bận của task chỉ tính phần mở rộng lớp này, không tính các task con bên dưới
+            MiningStats.TaskEvent task = MiningStats.beginTask("DP-Compact-SPADE", currentEqClass.pattern(0).length);
+            List<EqClass> nextLevelEqClasses = currentEqClass.expand(enc, F, top, cidWeights, totalWeight, wcmap, minWs, true);
+            MiningStats.endTask(task);
 
             List<RecursiveAction> subTasks = new ArrayList<>();
-            for (var entry : nextLevelEqClasses.entrySet()) {
-                var nextClass = entry.getValue();
-                if (nextClass.isEmpty()) continue;
-
+            for (var nextClass : nextLevelEqClasses) {
                 // Cố gắng chuyển giao tác vụ. Nếu không được, tự xử lý.
                 boolean offloaded = Q.offer(nextClass);
                 if (!offloaded) {
-                    subTasks.add(new ExpandTask(nextClass, F, cidWeights, totalWeight, wcmap, minWs, Q));
+                    subTasks.add(new ExpandTask(nextClass, F, top, enc, cidWeights, totalWeight, wcmap, minWs, Q));
                 }
             }
             if (!subTasks.isEmpty()) {
                 invokeAll(subTasks);
             }
         }
-
-        private static List<String> append(List<String> p, String x) {
-            var r = new ArrayList<>(p);
-            r.add(x);
-            return r;
-        }
     }
 }
@@ -1,8 +1,15 @@
 package org.wcpm.miner.parallel;
 
-import org.wcpm.miner.PatternMiner;
+import org.wcpm.miner.TopKPatternMiner;
+import org.wcpm.miner.PatternSink;
 import org.wcpm.model.CDB;
-import org.wcpm.util.CompactIdList;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.ClassCost;
+import org.wcpm.util.EqClass;
+import org.wcpm.util.MiningStats;
+import org.wcpm.util.PatternEmitter;
+import org.wcpm.util.SpillStore;
+import org.wcpm.util.TopK;
 import org.wcpm.util.WCMAP;
 
 import java.util.*;
@@ -13,181 +20,166 @@ import java.util.concurrent.*;
  * - Chiến lược song song hóa: Horizontal (chia để trị theo các 1-class).
  * - Thuật toán lõi: Vertical (dùng CompactIdList và phép join).
  */
-public class HPCompactSpade implements PatternMiner {
+public class HPCompactSpade implements TopKPatternMiner {
     private final int threads;
+    private final EqClass.Storage storage;
+    private final EqClass.Output output;
+    private volatile List<ClassCost.Sample> costSamples = List.of();
+
+    public HPCompactSpade(int threads) { this(threads, EqClass.Storage.TIDSET); }
+    public HPCompactSpade(int threads, EqClass.Storage storage) { this(threads, storage, EqClass.Output.ALL); }
+    public HPCompactSpade(int threads, EqClass.Storage storage, EqClass.Output output) {
+        this.threads = threads;
+        this.storage = storage;
+        this.output = output;
+    }
 
-    public HPCompactSpade(int threads) { this.threads = threads; }
+    @Override
+    public String name() {
+        return "HP-Compact-SPADE(" + threads
+                + (storage == EqClass.Storage.TIDSET ? "" : ", " + storage)
+                + (output == EqClass.Output.ALL ? "" : ", " + output) + ")";
+    }
+
+    /** Chi phí ước lượng và thời gian thực của từng 1-class trong lượt chạy gần nhất (để kiểm chứng mô hình). */
+    public List<ClassCost.Sample> costSamples() {
+        return costSamples;
+    }
 
     @Override
-    public String name() { return "HP-Compact-SPADE(" + threads + ")"; }
+    public void mine(CDB cdb, double minWs, PatternSink sink) {
+        MiningStats.MineEvent ev = MiningStats.beginRun(name(), threads, minWs);
+        PatternEmitter F = new PatternEmitter(cdb.encoded(), sink); // bộ đệm riêng mỗi worker, không tranh một Set chung
+        run(cdb, minWs, F, null);
+        MiningStats.endRun(ev, F.finish());
+    }
 
+    /**
+     * Top-k: mọi worker cùng đọc ngưỡng (không khóa) của một bộ gom TopK chung, nên mỗi cây con
+     * được cắt tỉa theo cận tốt nhất mà cả pool đã tìm được.
+     */
     @Override
-    public Set<List<String>> mine(CDB cdb, double minWs) {
+    public Set<List<String>> mineTopK(CDB cdb, int k) {
+        if (output != EqClass.Output.ALL)
+            throw new UnsupportedOperationException("Top-k chỉ hỗ trợ Output.ALL, không hỗ trợ " + output);
+        TopK top = new TopK(k);
+        MiningStats.MineEvent ev = MiningStats.beginRun(name(), threads, 0.0);
+        run(cdb, 0.0, null, top);
+        Set<List<String>> result = top.result();
+        MiningStats.endRun(ev, result.size());
+        return result;
+    }
+
+    private void run(CDB cdb, double minWs, PatternEmitter F, TopK top) {
         // --- GIAI ĐOẠN 1: CHUẨN BỊ (Tuần tự) ---
         // Quét CDB 1 lần duy nhất để xây dựng WCMAP và các CompactIdList cho F1
-        WCMAP wcmap = WCMAP.build(cdb);
-
-        Map<Integer, Double> cidWeights = new HashMap<>();
-        double totalWeight = cdb.totalWeight();
-        Map<String, CompactIdList> f1RawMap = new HashMap<>();
-        for (var r : cdb.rows()) {
-            cidWeights.put(r.cid(), r.weight());
-            var s = r.seq();
-            for (int i = 0; i < s.size(); i++) {
-                String item = s.get(i);
-                f1RawMap.computeIfAbsent(item, k -> new CompactIdList()).add(r.cid(), i);
-            }
-        }
+        WCMAP wcmap = WCMAP.build(cdb, threads);
 
-        Map<List<String>, CompactIdList> f1FrequentMap = new LinkedHashMap<>();
-        Set<List<String>> F = ConcurrentHashMap.newKeySet(); // Dùng tập an toàn cho thread
-        for (var entry : f1RawMap.entrySet()) {
-            CompactIdList idList = entry.getValue();
-            idList.sort();
-            double ws = idList.calculateSupport(cidWeights, totalWeight);
-            if (ws >= minWs) {
-                var p = List.of(entry.getKey());
-                f1FrequentMap.put(p, idList);
-                F.add(p);
-            }
-        }
+        EncodedCDB enc = cdb.encoded();
+        double[] cidWeights = enc.denseCidWeights();
+        double totalWeight = enc.totalWeight();
+        EqClass f1 = EqClass.frequentItems(enc, cidWeights, totalWeight, minWs, F, storage, output);
+        if (top != null) f1.offerTo(top, enc, cidWeights, totalWeight);
 
         // --- GIAI ĐOẠN 2: KHAI PHÁ SONG SONG THEO CHIỀU NGANG ---
+        // Worker là thread của một ForkJoinPool: lớp lớn (lớp gốc F1, các 1-class lớn) chia vòng join
+        // thành các khối hàng, worker nào đã hết 1-class trong hàng đợi sẽ steal các khối đó.
+        ForkJoinPool executor = new ForkJoinPool(threads);
 
         // 2.1. Tạo các Lớp Tương đương 1-item từ F1. Đây là các "đơn vị công việc".
         // Lớp [a] chứa các 2-pattern phổ biến bắt đầu bằng 'a'.
-        Map<List<String>, Map<List<String>, CompactIdList>> oneClasses = buildOneClasses(f1FrequentMap, F, cidWeights, totalWeight, wcmap, minWs);
-
-        // 2.2. Đưa các 1-class vào hàng đợi tác vụ.
-        BlockingQueue<Map.Entry<List<String>, Map<List<String>, CompactIdList>>> tasks = new LinkedBlockingQueue<>(oneClasses.entrySet());
-        ExecutorService executor = Executors.newFixedThreadPool(threads);
-
-        // 2.3. Các worker lấy việc và xử lý độc lập
-        for (int i = 0; i < threads; i++) {
-            executor.submit(() -> {
-                while (true) {
-                    var task = tasks.poll();
-                    if (task == null) break; // Hết việc
-
-                    Map<List<String>, CompactIdList> eqClass = task.getValue();
-                    // Mỗi worker sẽ tự mình đi sâu vào cây con của lớp nó nhận được
-                    dfsExtend(eqClass, F, cidWeights, totalWeight, wcmap, minWs);
+        // 2.2. Đưa các 1-class vào hàng đợi tác vụ theo chi phí ước lượng giảm dần (LPT). Các lớp chờ
+        // (trong hàng đợi và anh em trên nhánh DFS của mỗi worker) nằm trong SpillStore.
+        List<ClassCost.Sample> samples = Collections.synchronizedList(new ArrayList<>());
+        try (SpillStore spill = SpillStore.fromSystemProperties()) {
+            BlockingQueue<Job> tasks = lptQueue(executor.invoke(ForkJoinTask.adapt(
+                    () -> buildOneClasses(f1, spill, F, top, enc, cidWeights, totalWeight, wcmap, minWs))), enc, wcmap, minWs, spill);
+
+            // 2.3. Các worker lấy việc và xử lý độc lập
+            List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    while (true) {
+                        Job job = tasks.poll();
+                        if (job == null) break; // Hết việc
+                        EqClass eqClass = spill.take(job.pending());
+
+                        // Mỗi worker sẽ tự mình đi sâu vào cây con của lớp nó nhận được
+                        MiningStats.TaskEvent task = MiningStats.beginTask(name(), eqClass.pattern(0).length);
+                        long t0 = System.nanoTime();
+                        dfsExtend(eqClass, spill, F, top, enc, cidWeights, totalWeight, wcmap, minWs);
+                        samples.add(new ClassCost.Sample(job.label(), job.cost(), System.nanoTime() - t0));
+                        MiningStats.endTask(task);
+                    }
+                }));
+            }
+
+            executor.shutdown();
+            // Đợi từng worker; lỗi của worker (vd. hết heap) không được nuốt mất vì thiếu một cây con là
+            // sai kết quả
+            for (Future<?> w : workers) {
+                try {
+                    w.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
                 }
-            });
+            }
         }
+        costSamples = List.copyOf(samples);
+    }
 
-        executor.shutdown();
-        try {
-            executor.awaitTermination(365, TimeUnit.DAYS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
-        }
+    /**
+     * Một 1-class trong hàng đợi cùng nhãn (item đầu) và chi phí ước lượng của nó; lớp có thể đang
+     * nằm ngoài heap.
+     */
+    private record Job(SpillStore.Pending pending, String label, double cost) {}
 
-        return F;
+    /**
+     * Hàng đợi LPT: lớp nặng nhất được nhận đầu tiên, các lớp nhẹ ở cuối lấp chỗ trống khi các worker
+     * khác sắp xong. Hàng đợi giữ tham chiếu duy nhất tới các lớp, nên lớp đã xử lý được giải phóng ngay.
+     * Ước lượng chi phí cần cả lớp, nên lớp đã bị đẩy ra được nạp lại (từng lớp một) rồi gửi lại.
+     */
+    private static BlockingQueue<Job> lptQueue(List<SpillStore.Pending> oneClasses, EncodedCDB enc, WCMAP wcmap,
+                                               double minWs, SpillStore spill) {
+        int n = oneClasses.size();
+        double[] cost = new double[n];
+        String[] label = new String[n];
+        for (int i = 0; i < n; i++) {
+            EqClass c = spill.take(oneClasses.get(i));
+            cost[i] = ClassCost.estimate(c, wcmap, minWs);
+            label[i] = enc.item(c.pattern(0)[0]); // lấy trước khi lớp có thể bị đẩy ra lần nữa
+            oneClasses.set(i, spill.park(c));
+        }
+        BlockingQueue<Job> q = new LinkedBlockingQueue<>();
+        for (int i : ClassCost.lptOrder(cost)) q.add(new Job(oneClasses.get(i), label[i], cost[i]));
+        return q;
     }
 
     /**
      * Hàm này thực hiện phép join trên F1 để tạo ra các Lớp 1-item ban đầu.
      * Mỗi lớp 1-item chứa các 2-pattern phổ biến.
      */
-    private Map<List<String>, Map<List<String>, CompactIdList>> buildOneClasses(
-            Map<List<String>, CompactIdList> f1FrequentMap, Set<List<String>> F,
-            Map<Integer, Double> cidWeights, double totalWeight, WCMAP wcmap, double minWs) {
-
-        Map<List<String>, Map<List<String>, CompactIdList>> oneClasses = new LinkedHashMap<>();
-        List<Map.Entry<List<String>, CompactIdList>> patterns = new ArrayList<>(f1FrequentMap.entrySet());
-        int n = patterns.size();
-
-        for (int i = 0; i < n; i++) {
-            for (int j = i; j < n; j++) {
-                var p1Entry = patterns.get(i);
-                var p2Entry = patterns.get(j);
-
-                var p1 = p1Entry.getKey();
-                var list1 = p1Entry.getValue();
-                var p2 = p2Entry.getKey();
-                var list2 = p2Entry.getValue();
-
-                var cands = (p1.equals(p2)) ? List.of(append(p1, p1.get(0))) : List.of(append(p1, p2.get(0)), append(p2, p1.get(0)));
-
-                for(var cand : cands){
-                    if (wcmap.get(cand.get(0), cand.get(1)) < minWs) continue;
-
-                    CompactIdList candList = (p1.equals(p2))
-                            ? list1.join(list1, CompactIdList.JoinType.I_STEP)
-                            : (cand.get(0).equals(p1.get(0)) ? list1.join(list2, CompactIdList.JoinType.S_STEP) : list2.join(list1, CompactIdList.JoinType.S_STEP));
-
-                    if(candList.calculateSupport(cidWeights, totalWeight) >= minWs){
-                        F.add(cand);
-                        List<String> prefix = cand.subList(0, 1); // Prefix là 1-item
-                        oneClasses.computeIfAbsent(prefix, k -> new HashMap<>()).put(cand, candList);
-                    }
-                }
-            }
-        }
-        return oneClasses;
+    private List<SpillStore.Pending> buildOneClasses(EqClass f1, SpillStore spill, PatternEmitter F, TopK top,
+                                                     EncodedCDB enc, double[] cidWeights, double totalWeight,
+                                                     WCMAP wcmap, double minWs) {
+        return f1.expand(enc, F, top, cidWeights, totalWeight, wcmap, minWs, true, spill);
     }
 
 
     /**
      * Hàm đệ quy DFS theo chiều dọc, chạy tuần tự bên trong mỗi thread.
      */
-    private void dfsExtend(Map<List<String>, CompactIdList> currentEqClass,
-                           Set<List<String>> F,
-                           Map<Integer, Double> cidWeights, double totalWeight,
+    private void dfsExtend(EqClass currentEqClass, SpillStore spill,
+                           PatternEmitter F, TopK top, EncodedCDB enc,
+                           double[] cidWeights, double totalWeight,
                            WCMAP wcmap, double minWs) {
-
-        // Logic bên trong hàm này giống hệt với dfsExtend của DPCompactSpade
-        Map<List<String>, Map<List<String>, CompactIdList>> nextLevelEqClasses = new LinkedHashMap<>();
-        List<Map.Entry<List<String>, CompactIdList>> patterns = new ArrayList<>(currentEqClass.entrySet());
-        int n = patterns.size();
-        for (int i = 0; i < n; i++) {
-            for (int j = i; j < n; j++) {
-                var p1 = patterns.get(i).getKey();
-                var list1 = patterns.get(i).getValue();
-                var p2 = patterns.get(j).getKey();
-                var list2 = patterns.get(j).getValue();
-
-                String a = p1.get(p1.size() - 1);
-                String b = p2.get(p2.size() - 1);
-
-                var cands = (p1.equals(p2)) ? List.of(append(p1, a)) : List.of(append(p1, b), append(p2, a));
-                for (var cand : cands) {
-                    if (cand.size() >= 2) {
-                        String x = cand.get(cand.size() - 2);
-                        String y = cand.get(cand.size() - 1);
-                        if (wcmap.get(x, y) < minWs) continue;
-                    }
-                    CompactIdList candList;
-                    if (p1.equals(p2)) {
-                        candList = list1.join(list1, CompactIdList.JoinType.I_STEP);
-                    } else if (cand.equals(append(p1, b))) {
-                        candList = list1.join(list2, CompactIdList.JoinType.S_STEP);
-                    } else {
-                        candList = list2.join(list1, CompactIdList.JoinType.S_STEP);
-                    }
-
-                    if (candList.size() == 0) continue;
-                    double ws = candList.calculateSupport(cidWeights, totalWeight);
-                    if (ws >= minWs) {
-                        F.add(cand);
-                        List<String> newPrefix = cand.subList(0, cand.size() - 1);
-                        nextLevelEqClasses.computeIfAbsent(newPrefix, k -> new HashMap<>()).put(cand, candList);
-                    }
-                }
-            }
-        }
-        for (var e : nextLevelEqClasses.entrySet()) {
-            if (!e.getValue().isEmpty()) {
-                dfsExtend(e.getValue(), F, cidWeights, totalWeight, wcmap, minWs);
-            }
+        List<SpillStore.Pending> next = currentEqClass.expand(enc, F, top, cidWeights, totalWeight, wcmap, minWs, true, spill);
+        for (int k = 0; k < next.size(); k++) {
+            dfsExtend(spill.take(next.set(k, null)), spill, F, top, enc, cidWeights, totalWeight, wcmap, minWs);
         }
-    }
-
-    private static List<String> append(List<String> p, String x) {
-        var r = new ArrayList<>(p);
-        r.add(x);
-        return r;
+        currentEqClass.release();
     }
 }
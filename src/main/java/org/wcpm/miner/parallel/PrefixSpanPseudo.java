@@ -0,0 +1,113 @@
+package org.wcpm.miner.parallel;
+
+import org.wcpm.miner.PatternMiner;
+import org.wcpm.miner.PatternSink;
+import org.wcpm.model.CDB;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.MiningStats;
+import org.wcpm.util.PatternEmitter;
+import org.wcpm.util.Projection;
+import org.wcpm.util.WCMAP;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Miner ngang kiểu PrefixSpan với CSDL chiếu giả ({@link Projection}).
+ *
+ * StaticP đánh giá mỗi ứng viên bằng {@code Seqs.weightedSupport}: quét toàn bộ CDB và so sánh String,
+ * tức O(|ứng viên| × |CDB|). Ở đây mỗi pattern giữ phép chiếu của nó (dòng + vị trí hậu tố trên
+ * EncodedCDB), và mọi mở rộng một item của pattern được đếm trong cùng hai lượt quét chỉ các hậu tố
+ * chứa prefix. Cắt tỉa: support (đơn điệu giảm) và WCMAP trên cặp (item cuối, item mới), như các miner
+ * SPADE, nên tập kết quả trùng với chúng.
+ *
+ * Song song: mỗi pattern là một RecursiveAction; pattern con có tổng độ dài hậu tố từ
+ * {@link DPCompactSpade#FORK_COST} trở lên được fork, còn lại duyệt DFS ngay trong task hiện tại.
+ */
+public class PrefixSpanPseudo implements PatternMiner {
+    private final int threads;
+
+    public PrefixSpanPseudo(int threads) { this.threads = threads; }
+
+    @Override
+    public String name() { return "PrefixSpan-Pseudo(" + threads + ")"; }
+
+    @Override
+    public void mine(CDB cdb, double minWs, PatternSink sink) {
+        MiningStats.MineEvent ev = MiningStats.beginRun(name(), threads, minWs);
+        EncodedCDB enc = cdb.encoded();
+        WCMAP wcmap = WCMAP.build(enc, threads);
+        PatternEmitter F = new PatternEmitter(enc, sink);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new ProjectTask(new int[0], Projection.root(enc), enc, wcmap, minWs, F));
+        } finally {
+            pool.shutdown();
+        }
+        MiningStats.endRun(ev, F.finish());
+    }
+
+    static class ProjectTask extends RecursiveAction {
+        private final int[] prefix;
+        private final Projection projection;
+        private final EncodedCDB enc;
+        private final WCMAP wcmap;
+        private final double minWs;
+        private final PatternEmitter F;
+
+        ProjectTask(int[] prefix, Projection projection, EncodedCDB enc, WCMAP wcmap, double minWs,
+                    PatternEmitter F) {
+            this.prefix = prefix;
+            this.projection = projection;
+            this.enc = enc;
+            this.wcmap = wcmap;
+            this.minWs = minWs;
+            this.F = F;
+        }
+
+        @Override
+        protected void compute() {
+            MiningStats.TaskEvent task = MiningStats.beginTask("PrefixSpan-Pseudo", prefix.length);
+            List<ProjectTask> forked = new ArrayList<>();
+            extend(prefix, projection, forked);
+            MiningStats.endTask(task);
+            for (int k = forked.size() - 1; k >= 0; k--) forked.get(k).join();
+        }
+
+        /** Mở rộng prefix; các pattern con đủ lớn được fork vào forked, còn lại đệ quy tại chỗ. */
+        private void extend(int[] prefix, Projection proj, List<ProjectTask> forked) {
+            int last = prefix.length == 0 ? -1 : prefix[prefix.length - 1];
+            int[] stats = new int[3]; // candidates, wcmapPruned, survivors (cho MiningStats)
+            double[] support = new double[enc.alphabetSize()];
+            Projection[] next = proj.extend(enc, (x, ws) -> {
+                stats[0]++;
+                if (last >= 0 && wcmap.get(last, x) < minWs) { stats[1]++; return false; } // prune bởi WCMAP
+                if (ws <= 0 || ws < minWs) return false; // như EqClass: bỏ cả extension trọng số 0
+                stats[2]++;
+                support[x] = ws;
+                return true;
+            });
+            long bytes = 0;
+            for (Projection p : next) if (p != null) bytes += p.sizeInBytes();
+            // "join" của miner này là một lần đánh giá support trong lượt quét chung của prefix
+            MiningStats.recordLevel(prefix.length + 1, stats[0], stats[1], stats[0] - stats[1], 0, stats[2], bytes);
+
+            for (int x = 0; x < next.length; x++) {
+                Projection p = next[x];
+                if (p == null) continue;
+                next[x] = null; // phép chiếu con chỉ còn được giữ bởi nhánh của nó
+                int[] pattern = Arrays.copyOf(prefix, prefix.length + 1);
+                pattern[prefix.length] = x;
+                F.emit(pattern, support[x]);
+                if (p.suffixItems() >= DPCompactSpade.FORK_COST) {
+                    ProjectTask t = new ProjectTask(pattern, p, enc, wcmap, minWs, F);
+                    t.fork();
+                    forked.add(t);
+                } else {
+                    extend(pattern, p, forked);
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package org.wcpm.miner.parallel;
 
 import org.wcpm.miner.PatternMiner;
+import org.wcpm.miner.PatternSink;
 import org.wcpm.model.CDB;
+import org.wcpm.model.EncodedCDB;
+import org.wcpm.util.ClassCost;
+import org.wcpm.util.MiningStats;
+import org.wcpm.util.PatternEmitter;
 import org.wcpm.util.Phase0Builder;
 import org.wcpm.util.Seqs;
 import org.wcpm.util.WCMAP;
@@ -13,68 +18,101 @@ import java.util.stream.Collectors;
 /**
  * StaticP-Compact-SPADE với Phase-0:
  *  - Phase-0 build F1 + các 1-class [a] đã đầy đủ 2-pattern.
- *  - Chia đều các 1-class cho thread; mỗi thread DFS mở rộng sâu hơn trong class của mình.
+ *  - Chia các 1-class cho thread theo LPT trên chi phí ước lượng ({@link ClassCost}); mỗi thread DFS
+ *    mở rộng sâu hơn trong class của mình.
  */
 public class StaticPCompactSpade implements PatternMiner {
     private final int threads;
+    private volatile List<ClassCost.Sample> costSamples = List.of();
     public StaticPCompactSpade(int threads){ this.threads=threads; }
     @Override public String name(){ return "StaticP-Compact-SPADE("+threads+")"; }
 
+    /** Chi phí ước lượng và thời gian thực của từng 1-class trong lượt chạy gần nhất (để kiểm chứng mô hình). */
+    public List<ClassCost.Sample> costSamples() { return costSamples; }
+
     @Override
-    public Set<List<String>> mine(CDB cdb, double minWs) {
-        WCMAP wcmap = WCMAP.build(cdb);
+    public void mine(CDB cdb, double minWs, PatternSink sink) {
+        MiningStats.MineEvent ev = MiningStats.beginRun(name(), threads, minWs);
+        WCMAP wcmap = WCMAP.build(cdb, threads);
         Phase0Builder.Phase0 p0 = Phase0Builder.buildPhase0(cdb, minWs, wcmap);
+        EncodedCDB enc = cdb.encoded();
+        PatternEmitter F = new PatternEmitter(enc, sink);
 
         // Danh sách các 1-class (prefix) & 2-pattern tương ứng
         List<Map.Entry<List<String>, List<List<String>>>> classes =
                 new ArrayList<>(p0.classes2.entrySet());
 
-        // Chia class cho thread
-        List<List<Map.Entry<List<String>, List<List<String>>>>> parts = new ArrayList<>();
+        // Chia class cho thread theo LPT: lớp đắt nhất trước, mỗi lớp vào thread đang nhẹ tải nhất
+        double[] cost = new double[classes.size()];
+        for (int i=0;i<cost.length;i++) cost[i] = estimate(classes.get(i).getValue(), cdb, wcmap, minWs);
+        int[] bin = ClassCost.lptAssign(cost, threads);
+        List<List<Integer>> parts = new ArrayList<>();
         for (int i=0;i<threads;i++) parts.add(new ArrayList<>());
-        for (int i=0;i<classes.size();i++) parts.get(i % threads).add(classes.get(i));
+        for (int i : ClassCost.lptOrder(cost)) parts.get(bin[i]).add(i);
 
         ExecutorService es = Executors.newFixedThreadPool(threads);
-        List<Future<Set<List<String>>>> futures = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        List<ClassCost.Sample> samples = Collections.synchronizedList(new ArrayList<>());
 
+        // Kết quả cuối: F = F1 ∪ (patterns do các thread tìm được, bao gồm cả 2-pattern ở đầu vào)
+        for (var p : p0.F1) F.emit(enc.encodePattern(p), p0.supports.get(p));
         for (var part : parts) {
-            futures.add(es.submit(() -> minePartition(cdb, wcmap, minWs, part)));
+            futures.add(es.submit(() -> minePartition(cdb, enc, wcmap, minWs, classes, p0.supports, cost, part, samples, F)));
         }
-
-        // Kết quả cuối: F = F1 ∪ (patterns do các thread tìm được, bao gồm cả 2-pattern ở đầu vào)
-        Set<List<String>> F = new LinkedHashSet<>(p0.F1);
         try {
-            for (var f : futures) F.addAll(f.get());
+            for (var f : futures) f.get();
         } catch(Exception e){ throw new RuntimeException(e); }
         es.shutdown();
-        return F;
+        costSamples = List.copyOf(samples);
+        MiningStats.endRun(ev, F.finish());
+    }
+
+    /**
+     * Ước lượng chi phí 1-class cho miner ngang: không có IdList nên khối lượng dữ liệu của mỗi
+     * 2-pattern (a, b) lấy theo số chuỗi ước lượng từ WCMAP, wcmap(a, b) × |CDB|.
+     */
+    private static double estimate(List<List<String>> patterns, CDB cdb, WCMAP wcmap, double minWs) {
+        var enc = cdb.encoded();
+        int[] last = new int[patterns.size()];
+        double volume = 0.0;
+        for (int i=0;i<last.length;i++) {
+            var p = patterns.get(i);
+            last[i] = enc.id(p.get(p.size()-1));
+            volume += wcmap.get(p.get(p.size()-2), p.get(p.size()-1)) * enc.size();
+        }
+        return ClassCost.estimate(last.length, volume, ClassCost.pairMass(last, wcmap, minWs));
     }
 
-    private Set<List<String>> minePartition(
-            CDB cdb, WCMAP wcmap, double minWs,
-            List<Map.Entry<List<String>, List<List<String>>>> classes
+    private void minePartition(
+            CDB cdb, EncodedCDB enc, WCMAP wcmap, double minWs,
+            List<Map.Entry<List<String>, List<List<String>>>> classes, Map<List<String>, Double> supports,
+            double[] cost, List<Integer> part, List<ClassCost.Sample> samples, PatternEmitter F
     ) {
-        Set<List<String>> local = new LinkedHashSet<>();
-        for (var entry : classes) {
+        for (int k : part) {
+            var entry = classes.get(k);
             List<String> prefix = entry.getKey();         // [a]
             List<List<String>> patterns = entry.getValue(); // các 2-pattern (a, b)
 
             // Thêm luôn các 2-pattern đầu vào vào tập kết quả
-            local.addAll(patterns);
+            for (var p : patterns) F.emit(enc.encodePattern(p), supports.get(p));
 
             // DFS mở rộng từ class [a] với seed = danh sách 2-pattern của class
-            dfsExtend(prefix, patterns, local, cdb, wcmap, minWs);
+            MiningStats.TaskEvent task = MiningStats.beginTask(name(), 2);
+            long t0 = System.nanoTime();
+            dfsExtend(prefix, patterns, F, enc, cdb, wcmap, minWs);
+            samples.add(new ClassCost.Sample(prefix.get(0), cost[k], System.nanoTime() - t0));
+            MiningStats.endTask(task);
         }
-        return local;
     }
 
     /**
      * patterns: tập (k+1)-patterns cùng prefix, ví dụ: class [a] có seed là các 2-pattern (a, b).
      */
     private void dfsExtend(List<String> prefix, List<List<String>> patterns,
-                           Set<List<String>> F, CDB cdb, WCMAP wcmap, double minWs) {
+                           PatternEmitter F, EncodedCDB enc, CDB cdb, WCMAP wcmap, double minWs) {
         Map<List<String>, List<List<String>>> next = new LinkedHashMap<>();
         int n = patterns.size();
+        int candidates = 0, pruned = 0, scans = 0, survivors = 0; // cho MiningStats, một lần mỗi lớp
         for (int i=0;i<n;i++)for(int j=i;j<n;j++){
             var p1 = patterns.get(i); var p2 = patterns.get(j);
             String a = p1.get(p1.size()-1), b = p2.get(p2.size()-1);
@@ -82,19 +120,24 @@ public class StaticPCompactSpade implements PatternMiner {
                     ? List.of(append(p1,a))
                     : List.of(append(p1,b), append(p2,a));
             for (var cand : cands) {
+                candidates++;
                 if (cand.size()>=2) {
                     String x=cand.get(cand.size()-2), y=cand.get(cand.size()-1);
-                    if (wcmap.get(x,y) < minWs) continue; // prune bởi WCMAP
+                    if (wcmap.get(x,y) < minWs) { pruned++; continue; } // prune bởi WCMAP
                 }
+                scans++;
                 double ws = Seqs.weightedSupport(cand, cdb);
                 if (ws >= minWs) {
-                    F.add(cand);
+                    survivors++;
+                    F.emit(enc.encodePattern(cand), ws);
                     next.computeIfAbsent(cand.subList(0, cand.size()-1), k->new ArrayList<>()).add(cand);
                 }
             }
         }
+        // Miner ngang: "join" là một lần quét CDB tính support, không có IdList
+        if (n > 0) MiningStats.recordLevel(patterns.get(0).size() + 1, candidates, pruned, scans, 0, survivors, 0);
         for (var e: next.entrySet())
-            dfsExtend(e.getKey(), e.getValue(), F, cdb, wcmap, minWs);
+            dfsExtend(e.getKey(), e.getValue(), F, enc, cdb, wcmap, minWs);
     }
 
     private static List<String> append(List<String> p, String x){
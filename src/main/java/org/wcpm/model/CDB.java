@@ -2,9 +2,10 @@ package org.wcpm.model;
 import java.util.*;
 
 public class CDB {
-    private final List<Clickstream> rows;
+    private volatile List<Clickstream> rows;
     private final double totalWeight;
     private final Set<String> alphabet;
+    private volatile EncodedCDB encoded;
 
     public CDB(List<Clickstream> rows) {
         this.rows = rows;
@@ -13,7 +14,41 @@ public class CDB {
         for (var r : rows) alpha.addAll(r.seq());
         this.alphabet = Collections.unmodifiableSet(alpha);
     }
-    public List<Clickstream> rows() { return rows; }
+
+    /**
+     * CDB dựng trực tiếp từ dữ liệu đã mã hóa (ví dụ từ CsvReader.read); các Clickstream
+     * chỉ được giải mã khi có miner ngang cần đến rows().
+     */
+    public CDB(EncodedCDB encoded) {
+        this.encoded = encoded;
+        this.totalWeight = encoded.totalWeight();
+        Set<String> alpha = new TreeSet<>();
+        for (int i = 0; i < encoded.alphabetSize(); i++) alpha.add(encoded.item(i));
+        this.alphabet = Collections.unmodifiableSet(alpha);
+    }
+
+    public List<Clickstream> rows() {
+        List<Clickstream> r = rows;
+        if (r == null) {
+            synchronized (this) {
+                r = rows;
+                if (r == null) rows = r = encoded.decodeRows();
+            }
+        }
+        return r;
+    }
     public double totalWeight() { return totalWeight; }
     public Set<String> alphabet() { return alphabet; }
-}
\ No newline at end of file
+
+    /** Bản mã hóa từ điển của CDB, chỉ tính một lần rồi dùng chung cho mọi miner. */
+    public EncodedCDB encoded() {
+        EncodedCDB e = encoded;
+        if (e == null) {
+            synchronized (this) {
+                e = encoded;
+                if (e == null) encoded = e = EncodedCDB.encode(this);
+            }
+        }
+        return e;
+    }
+}
@@ -0,0 +1,138 @@
+package org.wcpm.model;
+import java.util.*;
+
+/**
+ * CDB đã được mã hóa từ điển: mỗi item trong alphabet được gán một id int dày đặc (0..n-1)
+ * theo đúng thứ tự của {@link CDB#alphabet()}.
+ * Dữ liệu được lưu theo cột: cid[], weight[], offsets[] và một mảng item phẳng, chuỗi thứ r
+ * nằm trong flatItems()[start(r) .. end(r)). Các miner làm việc hoàn toàn trên id int
+ * và chỉ giải mã về String khi xuất kết quả.
+ *
+ * CID cũng được mã hóa dày đặc: CID nội bộ của dòng r ({@link #cidIndex(int)}) là thứ hạng của CID
+ * trong các CID phân biệt đã sắp tăng dần (0..cidCount()-1), nên cùng thứ tự với CID gốc. IdList và các
+ * mảng đánh chỉ số theo CID ({@link #denseCidWeights()}, {@link #denseRowOfCid()}) dùng CID nội bộ,
+ * do đó CID gốc rất lớn hay âm không làm các mảng này phình ra; {@link #cidAt(int)} đổi ngược lại.
+ */
+public final class EncodedCDB {
+    private final String[] dictionary;         // id -> item
+    private final Map<String, Integer> ids;    // item -> id
+    private final int[] cids;
+    private final int[] cidIndex;              // dòng -> CID nội bộ
+    private final int[] distinctCids;          // CID nội bộ -> CID gốc (tăng dần)
+    private final double[] weights;
+    private final int[] offsets;               // độ dài rows + 1
+    private final int[] flatItems;
+    private final double totalWeight;
+
+    public EncodedCDB(String[] dictionary, int[] cids, double[] weights, int[] offsets, int[] flatItems) {
+        this.dictionary = dictionary;
+        this.ids = new HashMap<>(dictionary.length * 2);
+        for (int i = 0; i < dictionary.length; i++) ids.put(dictionary[i], i);
+        this.cids = cids;
+        boolean increasing = true; // trường hợp thường gặp (CSV / snapshot theo thứ tự CID): không cần sắp xếp
+        for (int r = 1; r < cids.length && increasing; r++) increasing = cids[r - 1] < cids[r];
+        this.cidIndex = new int[cids.length];
+        if (increasing) {
+            this.distinctCids = cids;
+            for (int r = 0; r < cids.length; r++) cidIndex[r] = r;
+        } else {
+            this.distinctCids = Arrays.stream(cids).sorted().distinct().toArray();
+            for (int r = 0; r < cids.length; r++) cidIndex[r] = Arrays.binarySearch(distinctCids, cids[r]);
+        }
+        this.weights = weights;
+        this.offsets = offsets;
+        this.flatItems = flatItems;
+        this.totalWeight = Arrays.stream(weights).sum(); // cùng cách cộng như CDB
+    }
+
+    public static EncodedCDB encode(CDB cdb) {
+        String[] dictionary = cdb.alphabet().toArray(new String[0]);
+        Map<String, Integer> ids = new HashMap<>(dictionary.length * 2);
+        for (int i = 0; i < dictionary.length; i++) ids.put(dictionary[i], i);
+
+        List<Clickstream> rows = cdb.rows();
+        int n = rows.size();
+        int[] cids = new int[n];
+        double[] weights = new double[n];
+        int[] offsets = new int[n + 1];
+        for (int r = 0; r < n; r++) offsets[r + 1] = offsets[r] + rows.get(r).seq().size();
+        int[] flatItems = new int[offsets[n]];
+        for (int r = 0; r < n; r++) {
+            Clickstream row = rows.get(r);
+            cids[r] = row.cid();
+            weights[r] = row.weight();
+            int p = offsets[r];
+            for (String item : row.seq()) flatItems[p++] = ids.get(item);
+        }
+        return new EncodedCDB(dictionary, cids, weights, offsets, flatItems);
+    }
+
+    public int size() { return cids.length; }
+    public int cid(int row) { return cids[row]; }
+    /** CID nội bộ (dày đặc, 0..cidCount()-1) của dòng; đây là CID được lưu trong IdList. */
+    public int cidIndex(int row) { return cidIndex[row]; }
+    /** Số CID phân biệt. */
+    public int cidCount() { return distinctCids.length; }
+    /** CID gốc của một CID nội bộ. */
+    public int cidAt(int index) { return distinctCids[index]; }
+    public double weight(int row) { return weights[row]; }
+    public int start(int row) { return offsets[row]; }
+    public int end(int row) { return offsets[row + 1]; }
+    public int length(int row) { return offsets[row + 1] - offsets[row]; }
+    public double totalWeight() { return totalWeight; }
+
+    /** Mảng item phẳng của mọi chuỗi (không sao chép, chỉ đọc). */
+    public int[] flatItems() { return flatItems; }
+
+    public int alphabetSize() { return dictionary.length; }
+    public String item(int id) { return dictionary[id]; }
+    /** Id của item, hoặc -1 nếu item không có trong alphabet. */
+    public int id(String item) { return ids.getOrDefault(item, -1); }
+
+    public List<String> decode(int[] pattern) {
+        String[] out = new String[pattern.length];
+        for (int i = 0; i < pattern.length; i++) out[i] = dictionary[pattern[i]];
+        return List.of(out);
+    }
+
+    public int[] encodePattern(List<String> pattern) {
+        int[] out = new int[pattern.size()];
+        for (int i = 0; i < out.length; i++) out[i] = id(pattern.get(i));
+        return out;
+    }
+
+    /** Giải mã lại thành các Clickstream (cho các miner ngang làm việc trên List&lt;String&gt;). */
+    public List<Clickstream> decodeRows() {
+        List<Clickstream> rows = new ArrayList<>(cids.length);
+        for (int r = 0; r < cids.length; r++) {
+            String[] seq = new String[length(r)];
+            for (int k = 0; k < seq.length; k++) seq[k] = dictionary[flatItems[offsets[r] + k]];
+            rows.add(new Clickstream(cids[r], List.of(seq), weights[r]));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    /** Trọng số theo CID (để tính support từ IdList). */
+    public Map<Integer, Double> cidWeights() {
+        Map<Integer, Double> m = new HashMap<>(cids.length * 2);
+        for (int r = 0; r < cids.length; r++) m.put(cids[r], weights[r]);
+        return m;
+    }
+
+    /**
+     * Trọng số theo CID dưới dạng mảng dày đặc (chỉ số = CID nội bộ), dùng trong vòng join để tránh
+     * boxing/tra cứu HashMap.
+     */
+    public double[] denseCidWeights() {
+        double[] w = new double[distinctCids.length];
+        for (int r = 0; r < cids.length; r++) w[cidIndex[r]] = weights[r];
+        return w;
+    }
+
+    /** Dòng chứa mỗi CID (chỉ số = CID nội bộ), để quay lại dữ liệu ngang từ IdList. */
+    public int[] denseRowOfCid() {
+        int[] rows = new int[distinctCids.length];
+        for (int r = 0; r < cids.length; r++) rows[cidIndex[r]] = r;
+        return rows;
+    }
+}
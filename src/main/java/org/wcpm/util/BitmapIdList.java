@@ -0,0 +1,198 @@
+package org.wcpm.util;
+
+import org.wcpm.model.EncodedCDB;
+
+import java.util.*;
+
+/**
+ * Backend IdList dạng bitmap theo kiểu SPAM: với mỗi chuỗi (cid) mà pattern có mặt, lưu một khối
+ * ceil(len / 64) word, bit k bật nếu phần tử cuối của pattern có thể kết thúc tại vị trí k.
+ * Chỉ lưu các khối khác 0, theo thứ tự slot (các dòng đã sắp theo CID).
+ *
+ * S-step = "biến đổi" khối của list1 (xóa mọi bit từ bit bật đầu tiên trở về trước, bật mọi bit
+ * phía sau) rồi AND với khối của list2; I-step = biến đổi rồi AND với chính nó. Tất cả là phép toán
+ * trên word long, không có vòng lặp theo từng cặp vị trí như {@link CompactIdList#join}.
+ */
+public final class BitmapIdList implements IdList {
+
+    /** Bố cục bitmap dùng chung cho cả lượt chạy: slot (dòng đã sắp theo CID) -> CID, số word. */
+    public static final class Layout {
+        private final int[] cids;   // slot -> CID nội bộ (tăng dần)
+        private final int[] words;  // slot -> số word của khối
+
+        private Layout(int[] cids, int[] words) {
+            this.cids = cids;
+            this.words = words;
+        }
+
+        public static Layout of(EncodedCDB enc) {
+            int n = enc.size();
+            Integer[] order = new Integer[n];
+            for (int r = 0; r < n; r++) order[r] = r;
+            Arrays.sort(order, Comparator.comparingInt(enc::cidIndex));
+            int[] cids = new int[n];
+            int[] words = new int[n];
+            for (int s = 0; s < n; s++) {
+                cids[s] = enc.cidIndex(order[s]);
+                words[s] = Math.max(1, (enc.length(order[s]) + 63) >>> 6);
+            }
+            return new Layout(cids, words);
+        }
+    }
+
+    private final Layout layout;
+    private int[] slots;    // slot có khối khác 0, tăng dần
+    private int[] starts;   // khối của slots[k] nằm ở bits[starts[k] .. starts[k+1])
+    private long[] bits;
+    private int n;          // số slot
+    private int nWords;
+    private int size;       // tổng số bit bật
+    private double weightedSupport = Double.NaN;
+    private double acc;     // trọng số cộng dồn trong lúc join có bỏ sớm
+
+    private BitmapIdList(Layout layout, int slotCapacity, int wordCapacity) {
+        this.layout = layout;
+        this.slots = new int[Math.max(1, slotCapacity)];
+        this.starts = new int[Math.max(1, slotCapacity) + 1];
+        this.bits = new long[Math.max(1, wordCapacity)];
+    }
+
+    /** Chuyển một CompactIdList (đã sắp xếp) sang bitmap theo bố cục cho trước. */
+    public static BitmapIdList of(CompactIdList list, Layout layout) {
+        BitmapIdList out = new BitmapIdList(layout, list.size(), list.size());
+        int slot = 0;
+        for (int i = 0; i < list.size(); ) {
+            int cid = list.cidAt(i);
+            while (layout.cids[slot] < cid) slot++;
+            int w = layout.words[slot];
+            int base = out.beginBlock(slot, w);
+            for (; i < list.size() && list.cidAt(i) == cid; i++) {
+                int pos = list.posAt(i);
+                out.bits[base + (pos >>> 6)] |= 1L << pos;
+            }
+            out.endBlock(w);
+        }
+        return out;
+    }
+
+    private int beginBlock(int slot, int w) {
+        if (n + 1 >= starts.length) {
+            slots = Arrays.copyOf(slots, slots.length * 2);
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        if (nWords + w > bits.length) bits = Arrays.copyOf(bits, Math.max(bits.length * 2, nWords + w));
+        slots[n] = slot;
+        starts[n] = nWords;
+        return nWords;
+    }
+
+    private void endBlock(int w) {
+        int base = nWords;
+        for (int k = 0; k < w; k++) size += Long.bitCount(bits[base + k]);
+        nWords += w;
+        starts[++n] = nWords;
+    }
+
+    /** Hủy khối vừa mở (kết quả AND bằng 0). */
+    private void dropBlock(int w) {
+        Arrays.fill(bits, nWords, nWords + w, 0L);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return 4L * slots.length + 4L * starts.length + 8L * bits.length;
+    }
+
+    @Override
+    public double calculateSupport(double[] cidWeights, double totalWeight) {
+        if (!Double.isNaN(weightedSupport)) return weightedSupport;
+        if (n == 0) return 0.0;
+        double sum = 0.0;
+        for (int k = 0; k < n; k++) sum += cidWeights[layout.cids[slots[k]]];
+        weightedSupport = sum / totalWeight;
+        return weightedSupport;
+    }
+
+    @Override
+    public int[] cids() {
+        int[] out = new int[n];
+        for (int k = 0; k < n; k++) out[k] = layout.cids[slots[k]];
+        return out;
+    }
+
+    @Override
+    public BitmapIdList join(IdList otherList, JoinType type) {
+        BitmapIdList other = type == JoinType.I_STEP ? this : (BitmapIdList) otherList;
+        return join(other, null, 0.0, 0.0);
+    }
+
+    @Override
+    public BitmapIdList join(IdList otherList, JoinType type,
+                             double[] cidWeights, double totalWeight, double minWs) {
+        BitmapIdList other = type == JoinType.I_STEP ? this : (BitmapIdList) otherList;
+        BitmapIdList out = join(other, cidWeights, totalWeight, CompactIdList.abandonBelow(minWs, totalWeight));
+        if (out != null) out.weightedSupport = out.acc / totalWeight;
+        return out;
+    }
+
+    /**
+     * Merge theo slot của this (list1) và other (list2). Khi cidWeights != null: cộng dồn trọng số các
+     * slot giữ lại, trừ dần trọng số còn lại của list2 và trả về null khi không thể đạt need nữa.
+     */
+    private BitmapIdList join(BitmapIdList other, double[] cidWeights, double totalWeight, double need) {
+        final boolean bounded = cidWeights != null;
+        double remaining = bounded ? other.calculateSupport(cidWeights, totalWeight) * totalWeight : 0.0;
+        BitmapIdList out = new BitmapIdList(layout, Math.min(n, other.n), Math.min(nWords, other.nWords));
+        int i = 0, j = 0;
+        while (i < n && j < other.n) {
+            int s1 = slots[i], s2 = other.slots[j];
+            if (s1 < s2) { i++; continue; }
+            if (s2 < s1) {
+                j++;
+                if (bounded) {
+                    remaining -= cidWeights[layout.cids[s2]];
+                    if (out.acc + remaining < need) return null;
+                }
+                continue;
+            }
+
+            int w = layout.words[s1];
+            int a = starts[i], b = other.starts[j];
+            int base = out.beginBlock(s1, w);
+            boolean any = false;
+            // Biến đổi khối list1: tìm bit bật đầu tiên, giữ các bit sau nó của list2
+            int k = 0;
+            while (k < w && bits[a + k] == 0L) k++;
+            if (k < w) {
+                long first = bits[a + k];
+                long after = -((first & -first) << 1); // mọi bit sau bit bật thấp nhất (0 nếu đó là bit 63)
+                long v = other.bits[b + k] & after;
+                out.bits[base + k] = v;
+                any = v != 0L;
+                for (int t = k + 1; t < w; t++) {
+                    v = other.bits[b + t];
+                    out.bits[base + t] = v;
+                    any |= v != 0L;
+                }
+            }
+            if (any) out.endBlock(w);
+            else out.dropBlock(w);
+            i++;
+            j++;
+
+            if (bounded) {
+                double cw = cidWeights[layout.cids[s1]];
+                remaining -= cw;
+                if (any) out.acc += cw;
+                else if (out.acc + remaining < need) return null;
+            }
+        }
+        if (bounded && out.acc < need) return null;
+        return out;
+    }
+}
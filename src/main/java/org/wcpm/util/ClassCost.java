@@ -0,0 +1,120 @@
+package org.wcpm.util;
+
+import java.util.*;
+
+/**
+ * Mô hình chi phí cho các 1-class (đơn vị công việc của HP / StaticP), dùng để xếp lịch kiểu LPT
+ * (longest processing time first): lớp đắt nhất được giao trước / vào thread đang nhẹ tải nhất.
+ *
+ * Ước lượng = n × V × (1 + P / n), trong đó
+ * <ul>
+ *   <li>n: số 2-pattern của lớp (số thành viên);</li>
+ *   <li>V: tổng độ dài IdList của các thành viên (khối lượng dữ liệu mỗi lượt join phải duyệt);
+ *       miner ngang không có IdList thì dùng số chuỗi ước lượng từ WCMAP;</li>
+ *   <li>P: "khối lượng cặp" WCMAP — tổng wcmap(x, y) trên các cặp phần tử cuối còn vượt minWs, chia
+ *       cho giá trị lớn nhất trong số đó. P càng lớn thì càng nhiều cặp sống sót và cây con càng sâu.</li>
+ * </ul>
+ * n × V là công của lượt join đầu tiên; (1 + P / n) là hệ số theo số lớp con dự kiến. Đây là heuristic:
+ * miner ghi lại cặp (ước lượng, thời gian thực) của từng lớp ({@link Sample}) để kiểm chứng mô hình,
+ * ví dụ bằng {@link #spearman}.
+ */
+public final class ClassCost {
+    private ClassCost() {}
+
+    /** Chi phí ước lượng và thời gian thực (ns) của một 1-class trong lượt chạy gần nhất. */
+    public record Sample(String label, double estimate, long actualNanos) {}
+
+    public static double estimate(int members, double volume, double pairMass) {
+        if (members == 0) return 0.0;
+        return members * volume * (1.0 + pairMass / members);
+    }
+
+    /** Ước lượng cho một lớp của miner dọc (V = tổng độ dài IdList, không dựng lại diffset). */
+    public static double estimate(EqClass c, WCMAP wcmap, double minWs) {
+        int n = c.size();
+        int[] last = new int[n];
+        for (int i = 0; i < n; i++) {
+            int[] p = c.pattern(i);
+            last[i] = p[p.length - 1];
+        }
+        return estimate(n, c.idListLength(), pairMass(last, wcmap, minWs));
+    }
+
+    /** Khối lượng cặp WCMAP của các phần tử cuối (xem mô tả lớp). */
+    public static double pairMass(int[] last, WCMAP wcmap, double minWs) {
+        double sum = 0.0, max = 0.0;
+        for (int x : last) {
+            for (int y : last) {
+                double w = wcmap.get(x, y);
+                if (w <= 0.0 || w < minWs) continue;
+                sum += w;
+                if (w > max) max = w;
+            }
+        }
+        return max == 0.0 ? 0.0 : sum / max;
+    }
+
+    /** Chỉ số các lớp theo chi phí giảm dần (bằng nhau thì giữ thứ tự ban đầu). */
+    public static int[] lptOrder(double[] cost) {
+        Integer[] idx = new Integer[cost.length];
+        for (int i = 0; i < idx.length; i++) idx[i] = i;
+        Arrays.sort(idx, (a, b) -> Double.compare(cost[b], cost[a]));
+        int[] out = new int[idx.length];
+        for (int i = 0; i < idx.length; i++) out[i] = idx[i];
+        return out;
+    }
+
+    /**
+     * Gán LPT tĩnh: duyệt các lớp theo chi phí giảm dần, mỗi lớp vào bin có tổng chi phí nhỏ nhất.
+     * Trả về bin của từng lớp.
+     */
+    public static int[] lptAssign(double[] cost, int bins) {
+        int[] bin = new int[cost.length];
+        double[] load = new double[bins];
+        PriorityQueue<Integer> lightest = new PriorityQueue<>(
+                (a, b) -> load[a] != load[b] ? Double.compare(load[a], load[b]) : Integer.compare(a, b));
+        for (int b = 0; b < bins; b++) lightest.add(b);
+        for (int i : lptOrder(cost)) {
+            int b = lightest.poll();
+            bin[i] = b;
+            load[b] += cost[i];
+            lightest.add(b);
+        }
+        return bin;
+    }
+
+    /** Hệ số tương quan hạng Spearman giữa ước lượng và thời gian thực (1 = mô hình xếp hạng đúng hoàn toàn). */
+    public static double spearman(List<Sample> samples) {
+        int n = samples.size();
+        if (n < 2) return Double.NaN;
+        double[] est = new double[n], act = new double[n];
+        for (int i = 0; i < n; i++) {
+            est[i] = samples.get(i).estimate();
+            act[i] = samples.get(i).actualNanos();
+        }
+        double[] re = ranks(est), ra = ranks(act);
+        double mean = (n + 1) / 2.0, cov = 0, ve = 0, va = 0;
+        for (int i = 0; i < n; i++) {
+            cov += (re[i] - mean) * (ra[i] - mean);
+            ve += (re[i] - mean) * (re[i] - mean);
+            va += (ra[i] - mean) * (ra[i] - mean);
+        }
+        return ve == 0 || va == 0 ? Double.NaN : cov / Math.sqrt(ve * va);
+    }
+
+    /** Hạng (bắt đầu từ 1), các giá trị bằng nhau nhận hạng trung bình. */
+    private static double[] ranks(double[] v) {
+        int n = v.length;
+        Integer[] idx = new Integer[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        Arrays.sort(idx, Comparator.comparingDouble(i -> v[i]));
+        double[] r = new double[n];
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j + 1 < n && v[idx[j + 1]] == v[idx[i]]) j++;
+            for (int k = i; k <= j; k++) r[idx[k]] = (i + j) / 2.0 + 1;
+            i = j + 1;
+        }
+        return r;
+    }
+}
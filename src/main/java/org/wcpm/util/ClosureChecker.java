@@ -0,0 +1,162 @@
+package org.wcpm.util;
+
+import org.wcpm.model.EncodedCDB;
+
+import java.util.*;
+
+/**
+ * Kiểm tra closed / maximal cho pattern tuần tự theo kiểu BIDE (bi-directional extension), chạy
+ * trên các chuỗi chứa pattern (lấy theo CID từ IdList) chứ không trên toàn bộ CDB.
+ *
+ * Với pattern P = e0..e(n-1) trong chuỗi S: fpos = lần xuất hiện đầu tiên (tham lam từ trái),
+ * ll = "last-in-last" (tham lam từ phải), lf = "last-in-first" (tham lam từ phải, bắt đầu tại fpos[n-1]).
+ * Chèn được item e vào khe g (trước e_g, g = n là nối thêm ở cuối) mà S vẫn chứa pattern mới
+ * khi và chỉ khi e nằm trong khoảng (fpos[g-1], ll[g]) — "khoảng cực đại" thứ g.
+ * <ul>
+ *   <li>P không closed nếu có (g, e) mà e nằm trong khoảng cực đại thứ g của MỌI chuỗi chứa P
+ *       (pattern mới có cùng tập CID, nên cùng support).</li>
+ *   <li>P không maximal nếu có (g, e) mà tổng trọng số các chuỗi có e trong khoảng đó đạt minWs.</li>
+ *   <li>BackScan: nếu có (g &lt; n, e) nằm trong khoảng "nửa cực đại" (fpos[g-1], lf[g]) của mọi chuỗi
+ *       thì mọi pattern có tiền tố P cũng không closed, nên có thể bỏ cả cây con của P.</li>
+ * </ul>
+ * Giả định mọi trọng số dương (cùng support tương đương cùng tập CID).
+ */
+final class ClosureChecker {
+    static final int CLOSED = 1;
+    static final int MAXIMAL = 2;
+    static final int PRUNABLE = 4;
+
+    private final EncodedCDB enc;
+    private final int[] rowOfCid;
+    private final double[] cidWeights;
+    private final double totalWeight;
+    private final double minWs;
+    private final boolean maximal; // true: cần cờ MAXIMAL, false: cần cờ CLOSED
+    private final ThreadLocal<Scratch> scratch;
+
+    /** Bộ đệm riêng của mỗi thread, tái sử dụng giữa các lần kiểm tra. */
+    private static final class Scratch {
+        final int[] stamp, mark, count;
+        final double[] weight;
+        final int[] touched;
+        int nextStamp;
+        int[] lo = new int[0], hiMax = new int[0], hiSemi = new int[0];
+
+        Scratch(int alphabet) {
+            stamp = new int[alphabet];
+            mark = new int[alphabet];
+            count = new int[alphabet];
+            weight = new double[alphabet];
+            touched = new int[alphabet];
+        }
+    }
+
+    ClosureChecker(EncodedCDB enc, double[] cidWeights, double totalWeight, double minWs, boolean maximal) {
+        this.enc = enc;
+        this.rowOfCid = enc.denseRowOfCid();
+        this.cidWeights = cidWeights;
+        this.totalWeight = totalWeight;
+        this.minWs = minWs;
+        this.maximal = maximal;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(enc.alphabetSize()));
+    }
+
+    boolean maximal() {
+        return maximal;
+    }
+
+    /**
+     * Trả về tổ hợp cờ CLOSED / MAXIMAL / PRUNABLE của pattern p, với cids là các CID (tăng dần)
+     * của những chuỗi chứa p.
+     */
+    int check(int[] p, int[] cids) {
+        Scratch sc = scratch.get();
+        int n = p.length, m = cids.length, stride = n + 1;
+        if (sc.lo.length < m * stride) {
+            int cap = Math.max(m * stride, sc.lo.length * 2);
+            sc.lo = new int[cap];
+            sc.hiMax = new int[cap];
+            sc.hiSemi = new int[cap];
+        }
+        int[] items = enc.flatItems();
+        for (int s = 0; s < m; s++) {
+            int row = rowOfCid[cids[s]];
+            locate(p, items, enc.start(row), enc.end(row), sc, s * stride);
+        }
+
+        // BackScan trên các khoảng nửa cực đại: đủ để cắt cả cây con (và P cũng không closed/maximal)
+        for (int g = 0; g < n; g++) {
+            if (scanGap(sc, cids, g, stride, sc.hiSemi, false)) return PRUNABLE;
+        }
+        // Khoảng cực đại, kể cả khe cuối (nối thêm item)
+        for (int g = 0; g <= n; g++) {
+            if (scanGap(sc, cids, g, stride, sc.hiMax, maximal)) return 0;
+        }
+        return CLOSED | MAXIMAL;
+    }
+
+    /** Tính biên các khoảng của p trong chuỗi items[from..to), ghi vào sc tại vị trí base. */
+    private static void locate(int[] p, int[] items, int from, int to, Scratch sc, int base) {
+        int n = p.length;
+        // lo[g] = fpos[g-1]: cận trái của khe g là lần xuất hiện đầu tiên của e(g-1)
+        sc.lo[base] = from - 1;
+        for (int pos = from, k = 0; k < n; pos++) {
+            if (items[pos] == p[k]) sc.lo[base + ++k] = pos;
+        }
+        // last-in-last: từ cuối chuỗi; last-in-first: từ lần xuất hiện đầu tiên của e(n-1)
+        for (int pos = to - 1, k = n - 1; k >= 0; pos--) {
+            if (items[pos] == p[k]) sc.hiMax[base + k--] = pos;
+        }
+        int firstEnd = sc.lo[base + n];
+        sc.hiSemi[base + n - 1] = firstEnd;
+        for (int pos = firstEnd - 1, k = n - 2; k >= 0; pos--) {
+            if (items[pos] == p[k]) sc.hiSemi[base + k--] = pos;
+        }
+        sc.hiMax[base + n] = to;
+        sc.hiSemi[base + n] = to;
+    }
+
+    /**
+     * Quét khe g của mọi chuỗi. byWeight = false: true nếu có item nằm trong khe của mọi chuỗi;
+     * byWeight = true: true nếu có item mà tổng trọng số các chuỗi chứa nó trong khe đạt minWs.
+     */
+    private boolean scanGap(Scratch sc, int[] cids, int g, int stride, int[] hi, boolean byWeight) {
+        int[] items = enc.flatItems();
+        if (sc.nextStamp > Integer.MAX_VALUE - cids.length - 2) {
+            Arrays.fill(sc.stamp, 0);
+            Arrays.fill(sc.mark, 0);
+            sc.nextStamp = 0;
+        }
+        int gapStamp = ++sc.nextStamp;
+        int touchedCount = 0;
+        boolean found = false;
+        for (int s = 0; s < cids.length; s++) {
+            int stamp = ++sc.nextStamp;
+            int alive = 0;
+            double w = cidWeights[cids[s]];
+            for (int pos = sc.lo[s * stride + g] + 1; pos < hi[s * stride + g]; pos++) {
+                int e = items[pos];
+                if (sc.stamp[e] == stamp) continue; // đã đếm item này trong chuỗi s
+                sc.stamp[e] = stamp;
+                if (sc.mark[e] != gapStamp) {
+                    sc.mark[e] = gapStamp;
+                    sc.touched[touchedCount++] = e;
+                }
+                if (sc.count[e] == s) {
+                    sc.count[e] = s + 1;
+                    alive++;
+                }
+                sc.weight[e] += w;
+            }
+            // Không còn item nào có mặt trong mọi chuỗi đã xét: khe này không cho pattern cùng support
+            if (!byWeight && alive == 0) break;
+        }
+        for (int t = 0; t < touchedCount; t++) {
+            int e = sc.touched[t];
+            if (byWeight ? sc.weight[e] / totalWeight >= minWs : sc.count[e] == cids.length) found = true;
+            sc.count[e] = 0;
+            sc.weight[e] = 0.0;
+        }
+        return found;
+    }
+}
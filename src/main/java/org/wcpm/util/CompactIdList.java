@@ -1,18 +1,24 @@
 package org.wcpm.util;
 
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Đại diện cho một WICList (Weighted ID-Compact Value List) như trong bài báo.
  * Nó lưu trữ một danh sách các lần xuất hiện của một pattern dưới dạng (cid, pos).
  * Chúng ta sẽ nén (cid, pos) vào một giá trị 'long' duy nhất để tiết kiệm bộ nhớ.
+ * Các giá trị được giữ trong một mảng long[] tự giãn (không boxing), nên add/sort/join
+ * không tạo ra object trung gian nào ngoài chính mảng dữ liệu.
  */
-public class CompactIdList {
+public class CompactIdList implements IdList {
 
-    // Danh sách các giá trị nén. Mỗi giá trị là 1 'long' chứa (cid << 32 | pos)
-    private final List<Long> idList;
-    private double weightedSupport = 0.0;
+    private static final long[] EMPTY = new long[0];
+
+    // Mảng các giá trị nén. Mỗi giá trị là 1 'long' chứa (cid << 32 | pos)
+    private long[] idList;
+    private int size;
+    private double weightedSupport = Double.NaN; // NaN: chưa tính
+    private double supportTotal;                  // totalWeight ứng với weightedSupport đã lưu
 
     // Giả sử CID và POS đều là kiểu int. Chúng ta dùng 32 bit đầu cho CID, 32 bit sau cho POS.
     private static long toCompact(int cid, int pos) {
@@ -28,114 +34,350 @@ public class CompactIdList {
     }
 
     public CompactIdList() {
-        this.idList = new ArrayList<>();
+        this.idList = EMPTY;
+    }
+
+    /**
+     * Tạo danh sách với sức chứa ban đầu cho trước (dùng khi đã ước lượng được kích thước kết quả join).
+     */
+    public CompactIdList(int initialCapacity) {
+        this.idList = initialCapacity > 0 ? new long[initialCapacity] : EMPTY;
+    }
+
+    private CompactIdList(long[] idList, int size) {
+        this.idList = idList;
+        this.size = size;
+    }
+
+    /**
+     * Kết quả join nằm trong buf[0 .. size): với arena, chép sang một mảng vừa khít lấy từ arena
+     * (buf là bộ đệm dùng lại của thread); không có arena thì buf đã là mảng riêng, giữ nguyên.
+     */
+    private static CompactIdList result(long[] buf, int size, IdListArena arena, int depth) {
+        if (arena == null) return new CompactIdList(buf, size);
+        long[] out = arena.take(depth, size);
+        System.arraycopy(buf, 0, out, 0, size);
+        return new CompactIdList(size == 0 ? EMPTY : out, size);
+    }
+
+    /** Ghi size rồi các phần tử (dùng khi đẩy lớp ra file tràn, xem {@link SpillStore}). */
+    void writeTo(ByteBuffer out) {
+        out.putInt(size);
+        out.asLongBuffer().put(idList, 0, size);
+        out.position(out.position() + 8 * size);
+    }
+
+    /** Đọc lại danh sách đã ghi bằng {@link #writeTo}, mảng lấy từ arena (nếu có) của độ sâu depth. */
+    static CompactIdList readFrom(ByteBuffer in, IdListArena arena, int depth) {
+        int size = in.getInt();
+        long[] a = size == 0 ? EMPTY : arena != null ? arena.take(depth, size) : new long[size];
+        in.asLongBuffer().get(a, 0, size);
+        in.position(in.position() + 8 * size);
+        return new CompactIdList(a, size);
+    }
+
+    /** Mảng dữ liệu cho arena tái sử dụng; danh sách trở thành rỗng. */
+    long[] release() {
+        long[] a = idList;
+        idList = EMPTY;
+        size = 0;
+        weightedSupport = Double.NaN;
+        return a;
     }
 
     public void add(int cid, int pos) {
-        this.idList.add(toCompact(cid, pos));
+        if (size == idList.length) grow();
+        idList[size++] = toCompact(cid, pos);
+        weightedSupport = Double.NaN;
+    }
+
+    /** Xóa mọi lần xuất hiện của một CID (dùng khi chuỗi hết hạn khỏi cửa sổ trượt). */
+    public void removeCid(int cid) {
+        long key = toCompact(cid, 0);
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idList[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        int end = lo;
+        while (end < size && getCid(idList[end]) == cid) end++;
+        if (end == lo) return;
+        System.arraycopy(idList, end, idList, lo, size - end);
+        size -= end - lo;
+        weightedSupport = Double.NaN;
     }
 
+    private void grow() {
+        int newCapacity = Math.max(8, idList.length + (idList.length >> 1));
+        idList = Arrays.copyOf(idList, newCapacity);
+    }
+
+    @Override
     public int size() {
-        return idList.size();
+        return size;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return 8L * idList.length;
+    }
+
+    /** CID của phần tử thứ i. */
+    int cidAt(int i) {
+        return getCid(idList[i]);
+    }
+
+    /** POS của phần tử thứ i. */
+    int posAt(int i) {
+        return getPos(idList[i]);
     }
 
     /**
      * Tính toán weighted support DỰA TRÊN IDLIST, không quét lại CDB.
+     * Danh sách luôn được sắp theo CID (IdList F1 được sắp sau khi quét, kết quả join giữ
+     * thứ tự của list2), nên chỉ cần đếm mỗi khi CID thay đổi.
+     * Kết quả được lưu lại cùng totalWeight đã dùng; gọi lại với totalWeight khác (cửa sổ trượt) sẽ tính lại.
      */
-    public double calculateSupport(Map<Integer, Double> cidWeights, double totalWeight) {
-        if (this.weightedSupport > 0) return this.weightedSupport;
-        if (idList.isEmpty()) return 0.0;
-
-        Set<Integer> cids = new HashSet<>();
-        for (long val : idList) {
-            cids.add(getCid(val));
-        }
+    @Override
+    public double calculateSupport(double[] cidWeights, double totalWeight) {
+        if (!Double.isNaN(this.weightedSupport) && supportTotal == totalWeight) return this.weightedSupport;
+        if (size == 0) return 0.0;
 
         double sum = 0.0;
-        for (int cid : cids) {
-            sum += cidWeights.getOrDefault(cid, 0.0);
+        int prevCid = getCid(idList[0]);
+        sum += cidWeights[prevCid];
+        for (int i = 1; i < size; i++) {
+            int cid = getCid(idList[i]);
+            if (cid != prevCid) {
+                sum += cidWeights[cid];
+                prevCid = cid;
+            }
         }
 
-        this.weightedSupport = sum / totalWeight;
+        setSupport(sum / totalWeight, totalWeight);
         return this.weightedSupport;
     }
 
+    private void setSupport(double ws, double totalWeight) {
+        this.weightedSupport = ws;
+        this.supportTotal = totalWeight;
+    }
+
+    @Override
+    public int[] cids() {
+        int[] out = new int[size];
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            int cid = getCid(idList[i]);
+            if (k == 0 || out[k - 1] != cid) out[k++] = cid;
+        }
+        return Arrays.copyOf(out, k);
+    }
+
     /**
      * Sắp xếp danh sách (quan trọng cho phép join).
      */
     public void sort() {
-        // Sắp xếp theo CID, sau đó theo POS
-        this.idList.sort(Comparator.comparingLong(val -> val));
-    }
-
-    public enum JoinType {
-        /**
-         * Join p1 và p2 (khác nhau) để tạo <p1, last(p2)>
-         * (p1, pos1) và (p2, pos2) -> pos1 < pos2
-         */
-        S_STEP, // Sequence-step
-        /**
-         * Join p1 với chính nó để tạo <p1, last(p1)>
-         * (p1, pos1) và (p1, pos2) -> pos1 < pos2
-         */
-        I_STEP  // Itemset-step (trong bài báo gọi là join P1=P2)
+        // Sắp xếp theo CID, sau đó theo POS (sắp xếp nguyên thủy trên long, không boxing)
+        Arrays.sort(idList, 0, size);
     }
 
     /**
      * Phép giao (join) cốt lõi của SPADE.
      * Đây là phần thay thế cho Seqs.weightedSupport(cand, cdb).
+     *
+     * Cả hai danh sách đã sắp theo (CID, POS) và không trùng lặp, nên trong mỗi CID chỉ cần pos1 nhỏ
+     * nhất (phần tử đầu tiên của CID đó trong list1): mọi pos2 &gt; pos1 min đều được giữ, mỗi pos2 đúng
+     * một lần. Kết quả vẫn sắp xếp, không trùng lặp, và join chạy trong O(|list1| + |list2|).
      */
-    public CompactIdList join(CompactIdList other, JoinType type) {
-        CompactIdList newList = new CompactIdList();
+    @Override
+    public CompactIdList join(IdList otherList, JoinType type) {
+        final long[] a = this.idList;
+        final int n1 = this.size;
 
         if (type == JoinType.I_STEP) {
-            // Join một danh sách với chính nó (P1 == P2)
-            // Tìm các cặp (cid, pos1) và (cid, pos2) trong CÙNG một danh sách
-            // sao cho pos1 < pos2
-            for (int i = 0; i < this.idList.size(); i++) {
-                long val1 = this.idList.get(i);
-                int cid1 = getCid(val1);
-                int pos1 = getPos(val1);
-
-                for (int j = i + 1; j < this.idList.size(); j++) {
-                    long val2 = this.idList.get(j);
-                    if (getCid(val2) != cid1) {
-                        break; // Đã sang CID khác
-                    }
-                    // Cùng CID, pos1 < pos2 (vì danh sách đã sắp xếp)
-                    newList.add(cid1, getPos(val2));
-                }
+            // Join một danh sách với chính nó (P1 == P2): trong mỗi CID, bỏ lần xuất hiện
+            // đầu tiên (pos1 nhỏ nhất), giữ mọi lần xuất hiện phía sau.
+            CompactIdList newList = new CompactIdList(n1);
+            int prevCid = 0;
+            for (int i = 0; i < n1; i++) {
+                int cid = getCid(a[i]);
+                if (i > 0 && cid == prevCid) newList.idList[newList.size++] = a[i];
+                prevCid = cid;
             }
-        } else {
-            // Join hai danh sách khác nhau (P1 != P2)
-            // Tìm (cid, pos1) trong 'this' (list1) và (cid, pos2) trong 'other' (list2)
-            // sao cho pos1 < pos2
-            int i = 0, j = 0;
-            while (i < this.idList.size()) {
-                long val1 = this.idList.get(i);
-                int cid1 = getCid(val1);
-                int pos1 = getPos(val1);
-
-                // Di chuyển con trỏ j đến đúng CID
-                while (j < other.idList.size() && getCid(other.idList.get(j)) < cid1) {
-                    j++;
-                }
-
-                // Quét tất cả các entry trong 'other' có cùng CID
-                int k = j;
-                while (k < other.idList.size() && getCid(other.idList.get(k)) == cid1) {
-                    int pos2 = getPos(other.idList.get(k));
-                    if (pos1 < pos2) {
-                        newList.add(cid1, pos2);
-                    }
-                    k++;
-                }
+            return newList;
+        }
+
+        // Join hai danh sách khác nhau (P1 != P2)
+        // Với mỗi CID chung: pos1 nhỏ nhất của 'this' (list1), giữ các (cid, pos2) của 'other' (list2)
+        // sao cho pos1 < pos2
+        final CompactIdList other = (CompactIdList) otherList;
+        final long[] b = other.idList;
+        final int n2 = other.size;
+        CompactIdList newList = new CompactIdList(n2);
+        int i = 0, j = 0;
+        while (i < n1 && j < n2) {
+            int cid1 = getCid(a[i]);
+            int cid2 = getCid(b[j]);
+            if (cid1 < cid2) {
                 i++;
+                continue;
             }
+            if (cid2 < cid1) {
+                j++;
+                continue;
+            }
+            int minPos = getPos(a[i]);
+            // Bỏ qua phần còn lại của CID này trong list1
+            do i++; while (i < n1 && getCid(a[i]) == cid1);
+            // list2: bỏ các pos2 <= pos1, giữ phần còn lại của CID
+            while (j < n2 && getCid(b[j]) == cid1 && getPos(b[j]) <= minPos) j++;
+            while (j < n2 && getCid(b[j]) == cid1) newList.idList[newList.size++] = b[j++];
+        }
+        return newList;
+    }
+
+    /**
+     * Ngưỡng trọng số tuyệt đối để bỏ sớm một phép join: hơi thấp hơn minWs * totalWeight để sai số
+     * làm tròn khi trừ dần trọng số còn lại không loại nhầm ứng viên vừa đạt ngưỡng.
+     */
+    static double abandonBelow(double minWs, double totalWeight) {
+        return (minWs - 1e-9) * totalWeight;
+    }
+
+    /**
+     * Join như {@link #join(IdList, JoinType)} nhưng đi theo từng CID của list2 (donor), cộng dồn
+     * trọng số các CID giữ lại và trừ dần trọng số còn lại của list2; trả về null ngay khi
+     * (đã có + còn lại) &lt; minWs.
+     */
+    @Override
+    public CompactIdList join(IdList otherList, JoinType type,
+                              double[] cidWeights, double totalWeight, double minWs) {
+        return join(otherList, type, cidWeights, totalWeight, minWs, null, 0);
+    }
+
+    /** Như trên; với arena != null, join ghi vào bộ đệm của thread và chỉ kết quả sống sót mới được cấp mảng. */
+    CompactIdList join(IdList otherList, JoinType type, double[] cidWeights, double totalWeight, double minWs,
+                       IdListArena arena, int depth) {
+        final CompactIdList other = type == JoinType.I_STEP ? this : (CompactIdList) otherList;
+        final long[] a = this.idList;
+        final int n1 = this.size;
+        final long[] b = other.idList;
+        final int n2 = other.size;
+        final double need = abandonBelow(minWs, totalWeight);
+        double remaining = other.calculateSupport(cidWeights, totalWeight) * totalWeight;
+        double acc = 0.0;
+
+        final long[] out = arena != null ? arena.scratch(n2) : new long[n2];
+        int size = 0;
+        int i = 0, j = 0;
+        while (j < n2) {
+            int cid = getCid(b[j]);
+            int minPos;
+            if (type == JoinType.I_STEP) {
+                minPos = getPos(b[j++]); // lần xuất hiện đầu tiên của CID là pos1 nhỏ nhất
+            } else {
+                while (i < n1 && getCid(a[i]) < cid) i++;
+                if (i == n1) break; // list1 đã hết: không CID nào của list2 còn được giữ
+                minPos = getCid(a[i]) == cid ? getPos(a[i]) : Integer.MAX_VALUE;
+            }
+
+            int before = size;
+            for (; j < n2 && getCid(b[j]) == cid; j++) {
+                if (getPos(b[j]) > minPos) out[size++] = b[j];
+            }
+            double w = cidWeights[cid];
+            remaining -= w;
+            if (size > before) acc += w;
+            else if (acc + remaining < need) return null;
         }
-        // Lưu ý: Danh sách mới có thể có trùng lặp, nhưng không ảnh hưởng
-        // đến lúc tính support (vì dùng Set<Integer> cids).
-        // Nếu cần tối ưu, có thể xử lý trùng lặp ở đây.
+        if (acc < need) return null;
+
+        CompactIdList newList = result(out, size, arena, depth);
+        newList.setSupport(acc / totalWeight, totalWeight);
         return newList;
     }
+
+    /**
+     * Phép join kiểu diffset (dSPADE): thay vì sinh IdList của ứng viên, chỉ sinh các lần xuất hiện
+     * của "donor" bị mất. Donor là list2 (other) với S_STEP và chính list1 với I_STEP; IdList đầy đủ
+     * của ứng viên = donor.minus(diff). Support của ứng viên là tổng trọng số các CID mà donor còn giữ
+     * (cộng theo cùng thứ tự CID như calculateSupport nên trùng khớp từng bit với tidset), và được gắn
+     * sẵn vào diff trả về. Vì ws(donor) - trọng số các CID bị mất chỉ giảm dần, join dừng và trả về
+     * null ngay khi nó xuống dưới minWs.
+     */
+    public CompactIdList diffJoin(CompactIdList other, JoinType type,
+                                  double[] cidWeights, double totalWeight, double minWs) {
+        return diffJoin(other, type, cidWeights, totalWeight, minWs, null, 0);
+    }
+
+    CompactIdList diffJoin(CompactIdList other, JoinType type, double[] cidWeights, double totalWeight,
+                           double minWs, IdListArena arena, int depth) {
+        final CompactIdList donor = type == JoinType.I_STEP ? this : other;
+        final long[] a = this.idList;
+        final int n1 = this.size;
+        final long[] b = donor.idList;
+        final int n2 = donor.size;
+        final long[] out = arena != null ? arena.scratch(n2) : new long[n2]; // diff là dãy con của donor
+        int size = 0;
+        final double donorWeight = donor.calculateSupport(cidWeights, totalWeight) * totalWeight;
+        final double need = abandonBelow(minWs, totalWeight);
+        double lost = 0.0, keptWeight = 0.0;
+
+        int i = 0, k = 0;
+        while (k < n2) {
+            int cid = getCid(b[k]);
+            int runEnd = k;
+            while (runEnd < n2 && getCid(b[runEnd]) == cid) runEnd++;
+
+            // pos1 nhỏ nhất của list1 trong CID này = phần tử đầu tiên (với I_STEP: của chính donor)
+            int minPos = Integer.MAX_VALUE;
+            if (type == JoinType.I_STEP) {
+                minPos = getPos(b[k]);
+            } else {
+                while (i < n1 && getCid(a[i]) < cid) i++;
+                if (i < n1 && getCid(a[i]) == cid) minPos = getPos(a[i]);
+            }
+
+            boolean kept = false;
+            for (int t = k; t < runEnd; t++) {
+                if (minPos < getPos(b[t])) kept = true;
+                else out[size++] = b[t];
+            }
+            if (kept) {
+                keptWeight += cidWeights[cid];
+            } else {
+                lost += cidWeights[cid];
+                if (donorWeight - lost < need) return null;
+            }
+            k = runEnd;
+        }
+
+        CompactIdList diff = arena != null || size == n2 ? result(out, size, arena, depth)
+                : new CompactIdList(Arrays.copyOf(out, size), size);
+        diff.setSupport(keptWeight / totalWeight, totalWeight);
+        return diff;
+    }
+
+    /**
+     * IdList đầy đủ = this (donor) trừ đi diff (cả hai cùng thứ tự, diff là dãy con của donor).
+     * Kết quả mang sẵn support đã gắn trên diff.
+     */
+    public CompactIdList minus(CompactIdList diff) {
+        return minus(diff, null, 0);
+    }
+
+    CompactIdList minus(CompactIdList diff, IdListArena arena, int depth) {
+        int n = size - diff.size;
+        long[] out = arena != null ? arena.take(depth, n) : new long[n];
+        int d = 0, k = 0;
+        for (int i = 0; i < size; i++) {
+            if (d < diff.size && idList[i] == diff.idList[d]) d++;
+            else out[k++] = idList[i];
+        }
+        CompactIdList full = new CompactIdList(n == 0 ? EMPTY : out, n);
+        full.setSupport(diff.weightedSupport, diff.supportTotal);
+        return full;
+    }
 }
@@ -0,0 +1,608 @@
+package org.wcpm.util;
+
+import org.wcpm.model.EncodedCDB;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Một lớp tương đương [P] của SPADE: các pattern cùng tiền tố P (dưới dạng id int) và IdList của chúng.
+ * Gom phần join theo cặp (i, j) dùng chung cho các miner dọc (Serial, HP, DP, AP);
+ * mỗi miner chỉ còn quyết định cách duyệt/song song hóa các lớp con.
+ *
+ * Thành viên của lớp có thể lưu IdList đầy đủ (tidset), bitmap ({@link BitmapIdList}) hoặc diffset
+ * so với "donor" là một thành viên của lớp cha (xem {@link CompactIdList#diffJoin}). Khi lớp được
+ * mở rộng, các diffset được dựng lại thành IdList đầy đủ một lần duy nhất, sau đó lớp không còn giữ
+ * tham chiếu tới lớp cha.
+ *
+ * Lớp sinh từ {@link #frequentItems} (backend CompactIdList) cấp phát IdList qua một {@link IdListArena}
+ * của lượt chạy: join ghi vào bộ đệm của worker, và miner trả cả lớp về arena bằng {@link #release()}
+ * khi đã duyệt xong cây con của nó.
+ */
+public class EqClass {
+
+    /** Cách lưu IdList của các lớp con, chọn cho cả lượt chạy. */
+    public enum Storage {
+        /** Luôn lưu IdList đầy đủ (như SPADE gốc). */
+        TIDSET,
+        /** Luôn lưu diffset so với donor. */
+        DIFFSET,
+        /**
+         * Chọn theo từng lớp: các lớp con được lưu dạng diffset khi mật độ của lớp đang mở rộng
+         * (|IdList| / |donor| của các thành viên) đạt {@link #DIFFSET_DENSITY}. Lớp gốc F1 không có donor
+         * nên F2 luôn là tidset.
+         */
+        AUTO,
+        /** Backend bitmap kiểu SPAM ({@link BitmapIdList}) thay cho CompactIdList. */
+        BITMAP
+    }
+
+    /** Tập pattern được xuất ra, chọn cho cả lượt chạy. */
+    public enum Output {
+        /** Mọi pattern phổ biến. */
+        ALL,
+        /** Chỉ pattern closed: không có chuỗi cha (super-sequence) nào cùng support. */
+        CLOSED,
+        /** Chỉ pattern maximal: không có chuỗi cha nào phổ biến. */
+        MAXIMAL
+    }
+
+    /** Ngưỡng mật độ để AUTO chuyển sang diffset: từ đây diffset không lớn hơn tidset. */
+    static final double DIFFSET_DENSITY = 0.5;
+
+    /** Lớp nhỏ hơn các ngưỡng này luôn được join tuần tự (xem expand(..., parallel)). */
+    static final int PARALLEL_MIN_SIZE = 32;
+    static final long PARALLEL_MIN_COST = 1L << 18;
+
+    private final Storage storage;
+    private final ClosureChecker closure; // null với Output.ALL
+    private final IdListArena arena;      // null: cấp phát thường (backend bitmap, lớp dựng tay)
+    private EqClass parent; // nguồn donor của các thành viên diffset; bỏ tham chiếu sau khi dựng lại
+    private final List<int[]> patterns = new ArrayList<>();
+    private final List<IdList> idLists = new ArrayList<>();
+    private int[] donors = new int[4];      // chỉ số donor trong lớp cha, -1 nếu là IdList đầy đủ
+    private int[] donorSizes = new int[4];  // |donor| lúc sinh thành viên, 0 nếu không có (F1)
+    private boolean[] pruned = new boolean[4]; // BackScan: không mở rộng cây con của thành viên này
+
+    public EqClass() { this(Storage.TIDSET, null, null, null); }
+
+    public EqClass(Storage storage) { this(storage, null, null, null); }
+
+    private EqClass(Storage storage, ClosureChecker closure, IdListArena arena, EqClass parent) {
+        this.storage = storage;
+        this.closure = closure;
+        this.arena = arena;
+        this.parent = parent;
+    }
+
+    public void add(int[] pattern, IdList idList) {
+        add(pattern, idList, -1, 0, false);
+    }
+
+    private void add(int[] pattern, IdList idList, int donor, int donorSize, boolean prune) {
+        int k = patterns.size();
+        if (k == donors.length) {
+            donors = Arrays.copyOf(donors, k * 2);
+            donorSizes = Arrays.copyOf(donorSizes, k * 2);
+            pruned = Arrays.copyOf(pruned, k * 2);
+        }
+        patterns.add(pattern);
+        idLists.add(idList);
+        donors[k] = donor;
+        donorSizes[k] = donorSize;
+        pruned[k] = prune;
+    }
+
+    /** Nối các thành viên của other (lớp con riêng phần cùng tiền tố, cùng lớp cha) vào cuối lớp này. */
+    private void absorb(EqClass other) {
+        for (int k = 0; k < other.patterns.size(); k++) {
+            add(other.patterns.get(k), other.idLists.get(k), other.donors[k], other.donorSizes[k], other.pruned[k]);
+        }
+    }
+
+    public int size() { return patterns.size(); }
+    public boolean isEmpty() { return patterns.isEmpty(); }
+    public int[] pattern(int i) { return patterns.get(i); }
+
+    /**
+     * Ước lượng chi phí mở rộng lớp: số thành viên × tổng độ dài IdList, tức khối lượng phần tử mà
+     * các phép join theo cặp phải duyệt. Thành viên diffset được tính theo |donor| (cận trên, không
+     * phải dựng lại IdList).
+     */
+    public long joinCost() {
+        return idListLength() * patterns.size();
+    }
+
+    /** Tổng độ dài IdList của các thành viên (diffset tính theo |donor|). */
+    public long idListLength() {
+        long len = 0;
+        for (int k = 0; k < patterns.size(); k++) {
+            len += donors[k] >= 0 ? donorSizes[k] : idLists.get(k).size();
+        }
+        return len;
+    }
+
+    /** IdList đầy đủ của thành viên i (dựng lại từ diffset nếu cần). */
+    public IdList idList(int i) {
+        materialize();
+        return idLists.get(i);
+    }
+
+    /** Dựng lại mọi diffset thành IdList đầy đủ từ donor trong lớp cha, rồi bỏ tham chiếu tới lớp cha. */
+    private void materialize() {
+        EqClass p = parent;
+        if (p == null) return;
+        for (int k = 0; k < patterns.size(); k++) {
+            if (donors[k] < 0) continue;
+            CompactIdList donor = (CompactIdList) p.idLists.get(donors[k]);
+            CompactIdList diff = (CompactIdList) idLists.get(k);
+            idLists.set(k, donor.minus(diff, arena, patterns.get(k).length));
+            if (arena != null) arena.release(patterns.get(k).length, diff.release());
+            donors[k] = -1;
+        }
+        parent = null;
+    }
+
+    /** Mật độ của lớp so với donor, dùng cho AUTO; -1 nếu lớp không có donor (F1). */
+    private double density() {
+        long kept = 0, total = 0;
+        for (int k = 0; k < patterns.size(); k++) {
+            if (donorSizes[k] == 0) continue;
+            kept += idLists.get(k).size();
+            total += donorSizes[k];
+        }
+        return total == 0 ? -1.0 : (double) kept / total;
+    }
+
+    /**
+     * Quét CDB (đã mã hóa) 1 lần duy nhất để xây IdList cho mọi item, giữ lại các 1-pattern phổ biến.
+     * Lớp trả về là lớp gốc [£] chứa F1 (theo thứ tự id, tức thứ tự alphabet).
+     */
+    public static EqClass frequentItems(EncodedCDB enc, double[] cidWeights, double totalWeight,
+                                        double minWs, PatternEmitter F) {
+        return frequentItems(enc, cidWeights, totalWeight, minWs, F, Storage.TIDSET);
+    }
+
+    public static EqClass frequentItems(EncodedCDB enc, double[] cidWeights, double totalWeight,
+                                        double minWs, PatternEmitter F, Storage storage) {
+        return frequentItems(enc, cidWeights, totalWeight, minWs, F, storage, Output.ALL);
+    }
+
+    /**
+     * Như trên, với Output.CLOSED / MAXIMAL: chỉ các 1-pattern closed / maximal được ghi vào F,
+     * và lớp gốc (cùng mọi lớp con) kiểm tra closure ngay khi sinh pattern mới.
+     */
+    public static EqClass frequentItems(EncodedCDB enc, double[] cidWeights, double totalWeight,
+                                        double minWs, PatternEmitter F, Storage storage, Output output) {
+        CompactIdList[] raw = new CompactIdList[enc.alphabetSize()];
+        int[] items = enc.flatItems();
+        for (int r = 0; r < enc.size(); r++) {
+            int cid = enc.cidIndex(r);
+            int from = enc.start(r), to = enc.end(r);
+            for (int i = from; i < to; i++) {
+                CompactIdList l = raw[items[i]];
+                if (l == null) raw[items[i]] = l = new CompactIdList();
+                l.add(cid, i - from);
+            }
+        }
+
+        ClosureChecker closure = output == Output.ALL ? null
+                : new ClosureChecker(enc, cidWeights, totalWeight, minWs, output == Output.MAXIMAL);
+        EqClass root = new EqClass(storage, closure, storage == Storage.BITMAP ? null : new IdListArena(), null);
+        BitmapIdList.Layout layout = storage == Storage.BITMAP ? BitmapIdList.Layout.of(enc) : null;
+        MiningStats.ExpandEvent ev = MiningStats.beginExpand(1, 0);
+        for (int item = 0; item < raw.length; item++) {
+            CompactIdList idList = raw[item];
+            if (idList == null) continue;
+            ev.candidates++;
+            idList.sort(); // Sắp xếp IdList để chuẩn bị cho join
+            double ws = idList.calculateSupport(cidWeights, totalWeight);
+            if (ws > 0 && ws >= minWs) {
+                int[] p = {item};
+                int flags = root.classify(p, idList);
+                IdList stored = layout != null ? BitmapIdList.of(idList, layout) : idList;
+                root.add(p, stored, -1, 0, (flags & ClosureChecker.PRUNABLE) != 0);
+                ev.survivors++;
+                ev.idListBytes += stored.sizeInBytes();
+                if (F != null && root.emits(flags)) F.emit(p, ws);
+            }
+        }
+        MiningStats.endExpand(ev);
+        return root;
+    }
+
+    /** Đưa các thành viên của lớp (thường là F1) vào bộ gom top-k, nâng ngưỡng ban đầu. */
+    public void offerTo(TopK top, EncodedCDB enc, double[] cidWeights, double totalWeight) {
+        for (int i = 0; i < size(); i++) {
+            top.offer(enc.decode(pattern(i)), idList(i).calculateSupport(cidWeights, totalWeight));
+        }
+    }
+
+    /**
+     * Join từng cặp (i, j) trong lớp để sinh ứng viên theo §4.2, cắt tỉa bằng WCMAP, tính support từ IdList
+     * ngay trong lúc join (join bỏ sớm khi ứng viên không thể đạt minWs).
+     * Pattern phổ biến được ghi vào F cùng weighted support (nếu F != null); lớp con của &lt;p_i&gt; chứa
+     * các pattern &lt;p_i, x&gt; và được trả về theo thứ tự i.
+     */
+    public List<EqClass> expand(EncodedCDB enc, PatternEmitter F,
+                                double[] cidWeights, double totalWeight,
+                                WCMAP wcmap, double minWs) {
+        return expand(enc, F, null, cidWeights, totalWeight, wcmap, minWs);
+    }
+
+    /**
+     * Như trên, thêm chế độ top-k: khi top != null, ngưỡng cắt tỉa là max(minWs, top.threshold()),
+     * được đọc lại trước mỗi cặp join nên luôn theo kịp cận mà các thread khác vừa nâng lên;
+     * pattern phổ biến được đưa vào top.
+     */
+    public List<EqClass> expand(EncodedCDB enc, PatternEmitter F, TopK top,
+                                double[] cidWeights, double totalWeight,
+                                WCMAP wcmap, double minWs) {
+        return expand(enc, F, top, cidWeights, totalWeight, wcmap, minWs, false);
+    }
+
+    /**
+     * Như trên; với parallel = true, lớp lớn (ít nhất {@link #PARALLEL_MIN_SIZE} thành viên và
+     * {@link #joinCost()} từ {@link #PARALLEL_MIN_COST}) được mở rộng song song khi đang chạy trong một
+     * ForkJoinPool: vòng join (i, j) được chia thành các khối hàng i liên tiếp có số cặp xấp xỉ nhau,
+     * mỗi khối sinh các lớp con riêng phần, sau đó ghép lại theo thứ tự khối — đúng thứ tự thành viên
+     * như khi chạy tuần tự. Khi đó F (nếu có) phải an toàn cho nhiều thread.
+     */
+    public List<EqClass> expand(EncodedCDB enc, PatternEmitter F, TopK top,
+                                double[] cidWeights, double totalWeight,
+                                WCMAP wcmap, double minWs, boolean parallel) {
+        EqClass[] next = expandInto(enc, F, top, cidWeights, totalWeight, wcmap, minWs, parallel, null, null);
+        List<EqClass> out = new ArrayList<>();
+        for (EqClass c : next) if (c != null) out.add(c);
+        return out;
+    }
+
+    /**
+     * Như trên, các lớp con được gửi vào spill theo thứ tự. Khi spill có ngân sách, lớp được mở rộng tuần
+     * tự theo từng thành viên (không chia khối hàng) và mỗi lớp con được gửi ngay khi dựng xong thay vì đợi
+     * cả vòng join, nên ngân sách áp dụng cả trong lúc mở rộng một lớp rất lớn (như F1 → F2).
+     */
+    public List<SpillStore.Pending> expand(EncodedCDB enc, PatternEmitter F, TopK top,
+                                           double[] cidWeights, double totalWeight,
+                                           WCMAP wcmap, double minWs, boolean parallel, SpillStore spill) {
+        SpillStore.Pending[] parked = new SpillStore.Pending[patterns.size()];
+        EqClass[] next = expandInto(enc, F, top, cidWeights, totalWeight, wcmap, minWs, parallel, spill, parked);
+        List<SpillStore.Pending> out = new ArrayList<>();
+        for (int k = 0; k < parked.length; k++) {
+            if (parked[k] != null) out.add(parked[k]);
+            else if (next[k] != null) out.add(spill.park(next[k]));
+        }
+        return out;
+    }
+
+    /** Vòng mở rộng chung; lớp con đã gửi vào spill nằm trong parked, phần còn lại trong mảng trả về. */
+    private EqClass[] expandInto(EncodedCDB enc, PatternEmitter F, TopK top,
+                                 double[] cidWeights, double totalWeight, WCMAP wcmap, double minWs,
+                                 boolean parallel, SpillStore spill, SpillStore.Pending[] parked) {
+        materialize();
+        int n = patterns.size();
+        if (n == 0) return new EqClass[0];
+        boolean diff = storage == Storage.DIFFSET
+                || (storage == Storage.AUTO && density() >= DIFFSET_DENSITY);
+        // Bộ đếm cục bộ của lớp, cộng vào MiningStats (và ghi sự kiện JFR) một lần khi xong
+        MiningStats.ExpandEvent ev = MiningStats.beginExpand(patterns.get(0).length + 1, n);
+
+        EqClass[] next;
+        if (spill != null && spill.bounded()) {
+            // Có ngân sách bộ nhớ: vòng theo cặp (và các khối hàng) giữ dở dang mọi lớp con tới hàng cuối,
+            // nên ở đây sinh trọn lớp con của từng p_k (join p_k với mọi thành viên — cùng các phép join và
+            // thứ tự thành viên) rồi gửi ngay; trên heap chỉ còn một lớp con đang dựng
+            next = new EqClass[n];
+            for (int k = 0; k < n; k++) {
+                if (pruned[k]) continue;
+                expandMemberRow(k, next, diff, enc, F, top, cidWeights, totalWeight, wcmap, minWs, ev);
+                if (next[k] != null) {
+                    parked[k] = spill.park(next[k]);
+                    next[k] = null;
+                }
+            }
+        } else if (parallel && n >= PARALLEL_MIN_SIZE && ForkJoinTask.inForkJoinPool() && joinCost() >= PARALLEL_MIN_COST) {
+            // Chia [0, n) thành các khối hàng có số cặp (n - i mỗi hàng) xấp xỉ nhau
+            int blocks = Math.min(n, 4 * ForkJoinTask.getPool().getParallelism());
+            long pairs = (long) n * (n + 1) / 2, done = 0;
+            List<RowBlock> tasks = new ArrayList<>(blocks);
+            int from = 0;
+            for (int i = 0; i < n; i++) {
+                done += n - i;
+                if (i == n - 1 || done * blocks >= pairs * (tasks.size() + 1)) {
+                    tasks.add(new RowBlock(from, i + 1, diff, enc, F, top, cidWeights, totalWeight, wcmap, minWs));
+                    from = i + 1;
+                }
+            }
+            ForkJoinTask.invokeAll(tasks);
+            // Ghép theo thứ tự khối: lớp con của p_k chỉ nhận thành viên từ các hàng i <= k
+            next = tasks.get(0).next;
+            for (int b = 1; b < tasks.size(); b++) {
+                EqClass[] part = tasks.get(b).next;
+                for (int k = 0; k < n; k++) {
+                    if (part[k] == null) continue;
+                    if (next[k] == null) next[k] = part[k];
+                    else next[k].absorb(part[k]);
+                }
+                MiningStats.merge(ev, tasks.get(b).ev);
+            }
+            MiningStats.merge(ev, tasks.get(0).ev);
+        } else {
+            next = new EqClass[n];
+            expandRows(0, n, next, diff, enc, F, top, cidWeights, totalWeight, wcmap, minWs, ev);
+        }
+
+        MiningStats.endExpand(ev);
+        return next;
+    }
+
+    /** Một khối hàng [from, to) của vòng join, chạy như một task ForkJoin với lớp con và bộ đếm riêng. */
+    private final class RowBlock extends RecursiveAction {
+        final int from, to;
+        final boolean diff;
+        final EncodedCDB enc;
+        final PatternEmitter F;
+        final TopK top;
+        final double[] cidWeights;
+        final double totalWeight;
+        final WCMAP wcmap;
+        final double minWs;
+        final EqClass[] next = new EqClass[patterns.size()];
+        final MiningStats.ExpandEvent ev = new MiningStats.ExpandEvent();
+
+        RowBlock(int from, int to, boolean diff, EncodedCDB enc, PatternEmitter F, TopK top,
+                 double[] cidWeights, double totalWeight, WCMAP wcmap, double minWs) {
+            this.from = from;
+            this.to = to;
+            this.diff = diff;
+            this.enc = enc;
+            this.F = F;
+            this.top = top;
+            this.cidWeights = cidWeights;
+            this.totalWeight = totalWeight;
+            this.wcmap = wcmap;
+            this.minWs = minWs;
+        }
+
+        @Override
+        protected void compute() {
+            expandRows(from, to, next, diff, enc, F, top, cidWeights, totalWeight, wcmap, minWs, ev);
+        }
+    }
+
+    /** Vòng join theo cặp (i, j), j >= i, cho các hàng i trong [from, to). */
+    private void expandRows(int from, int to, EqClass[] next, boolean diff,
+                            EncodedCDB enc, PatternEmitter F, TopK top,
+                            double[] cidWeights, double totalWeight,
+                            WCMAP wcmap, double minWs, MiningStats.ExpandEvent ev) {
+        int n = patterns.size();
+        for (int i = from; i < to; i++) {
+            int[] p1 = patterns.get(i);
+            IdList list1 = idLists.get(i);
+            int a = p1[p1.length - 1];
+            boolean grow1 = !pruned[i]; // cây con của p1 đã bị BackScan cắt: p1 chỉ còn làm donor
+
+            for (int j = i; j < n; j++) {
+                boolean grow2 = !pruned[j];
+                if (!grow1 && !grow2) continue;
+                double ms = top == null ? minWs : Math.max(minWs, top.threshold());
+                if (i == j) {
+                    // Cand = <p1, a>: I-Step, join list1 với chính nó (donor: list1)
+                    ev.candidates++;
+                    if (wcmap.get(a, a) < ms) { ev.wcmapPruned++; continue; } // prune
+                    ev.joins++;
+                    IdList candList = join(list1, list1, IdList.JoinType.I_STEP, diff, cidWeights, totalWeight, ms, p1.length + 1);
+                    accept(next, i, p1, a, candList, diff, i, list1.size(), enc, F, top, cidWeights, totalWeight, ms, ev);
+                    continue;
+                }
+
+                int[] p2 = patterns.get(j);
+                IdList list2 = idLists.get(j);
+                int b = p2[p2.length - 1];
+
+                // Cand = <p1, b>: S-Step, join list1 với list2 (donor: list2)
+                if (grow1) {
+                    ev.candidates++;
+                    if (wcmap.get(a, b) < ms) {
+                        ev.wcmapPruned++; // prune
+                    } else {
+                        ev.joins++;
+                        IdList candList = join(list1, list2, IdList.JoinType.S_STEP, diff, cidWeights, totalWeight, ms, p1.length + 1);
+                        accept(next, i, p1, b, candList, diff, j, list2.size(), enc, F, top, cidWeights, totalWeight, ms, ev);
+                    }
+                }
+                // Cand = <p2, a>: S-Step, join list2 với list1 (donor: list1)
+                if (grow2) {
+                    ev.candidates++;
+                    if (wcmap.get(b, a) < ms) {
+                        ev.wcmapPruned++; // prune
+                    } else {
+                        ev.joins++;
+                        IdList candList = join(list2, list1, IdList.JoinType.S_STEP, diff, cidWeights, totalWeight, ms, p2.length + 1);
+                        accept(next, j, p2, a, candList, diff, i, list1.size(), enc, F, top, cidWeights, totalWeight, ms, ev);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Chỉ sinh lớp con của thành viên i: các pattern &lt;p_i, x&gt; với x là phần tử cuối của mọi thành viên
+     * (cùng các phép join mà {@link #expand} thực hiện cho tiền tố p_i). Dùng khi cần khai phá lại riêng
+     * một cây con, ví dụ miner tăng dần. Trả về null nếu lớp con rỗng.
+     */
+    public EqClass expandMember(int i, EncodedCDB enc, PatternEmitter F,
+                                double[] cidWeights, double totalWeight,
+                                WCMAP wcmap, double minWs) {
+        materialize();
+        int n = patterns.size();
+        EqClass[] next = new EqClass[n];
+        boolean diff = storage == Storage.DIFFSET
+                || (storage == Storage.AUTO && density() >= DIFFSET_DENSITY);
+        MiningStats.ExpandEvent ev = MiningStats.beginExpand(patterns.get(i).length + 1, n);
+        expandMemberRow(i, next, diff, enc, F, null, cidWeights, totalWeight, wcmap, minWs, ev);
+        MiningStats.endExpand(ev);
+        return next[i];
+    }
+
+    /** Các phép join sinh lớp con next[i]: &lt;p_i, x&gt; với x là phần tử cuối của mọi thành viên, theo thứ tự. */
+    private void expandMemberRow(int i, EqClass[] next, boolean diff,
+                                 EncodedCDB enc, PatternEmitter F, TopK top,
+                                 double[] cidWeights, double totalWeight,
+                                 WCMAP wcmap, double minWs, MiningStats.ExpandEvent ev) {
+        int n = patterns.size();
+        int[] p1 = patterns.get(i);
+        IdList list1 = idLists.get(i);
+        int a = p1[p1.length - 1];
+        for (int j = 0; j < n; j++) {
+            int[] p2 = patterns.get(j);
+            IdList list2 = idLists.get(j);
+            int b = p2[p2.length - 1];
+            double ms = top == null ? minWs : Math.max(minWs, top.threshold());
+            ev.candidates++;
+            if (wcmap.get(a, b) < ms) { ev.wcmapPruned++; continue; } // prune
+            ev.joins++;
+            IdList.JoinType type = i == j ? IdList.JoinType.I_STEP : IdList.JoinType.S_STEP;
+            IdList candList = join(list1, list2, type, diff, cidWeights, totalWeight, ms, p1.length + 1);
+            accept(next, i, p1, b, candList, diff, j, list2.size(), enc, F, top, cidWeights, totalWeight, ms, ev);
+        }
+    }
+
+    /**
+     * Join list1 với list2 để sinh IdList (hoặc diffset) của ứng viên độ dài depth; với backend
+     * CompactIdList và arena, kết quả chỉ được cấp mảng khi sống sót.
+     */
+    private IdList join(IdList list1, IdList list2, IdList.JoinType type, boolean diff,
+                        double[] cidWeights, double totalWeight, double minWs, int depth) {
+        if (diff) {
+            return ((CompactIdList) list1).diffJoin((CompactIdList) list2, type, cidWeights, totalWeight, minWs, arena, depth);
+        }
+        if (arena != null) {
+            return ((CompactIdList) list1).join(list2, type, cidWeights, totalWeight, minWs, arena, depth);
+        }
+        return list1.join(list2, type, cidWeights, totalWeight, minWs);
+    }
+
+    /** Nhận ứng viên &lt;p, x&gt; của thành viên parentIdx; mảng pattern chỉ được tạo khi ứng viên đạt ngưỡng. */
+    private void accept(EqClass[] next, int parentIdx, int[] p, int x, IdList candList,
+                        boolean diff, int donor, int donorSize,
+                        EncodedCDB enc, PatternEmitter F, TopK top,
+                        double[] cidWeights, double totalWeight, double minWs, MiningStats.ExpandEvent ev) {
+        if (candList == null) { ev.abandoned++; return; } // join đã bỏ sớm: không thể đạt minWs
+        double ws = candList.calculateSupport(cidWeights, totalWeight);
+        // Bỏ qua ứng viên không còn CID nào (trọng số giữ lại bằng 0) trên mọi backend: với diffset IdList
+        // rỗng không có nghĩa là ứng viên rỗng, nên kiểm tra theo ws (cần khi minWs <= 0, vd. top-k)
+        if (ws <= 0 || ws < minWs) return;
+        int[] cand = append(p, x);
+        if (top != null && (ws < top.threshold() || !top.offer(enc.decode(cand), ws))) return;
+        // Output.ALL không cần IdList đầy đủ: không dựng lại từ diffset chỉ để kiểm tra closure
+        int flags = closure == null ? ClosureChecker.CLOSED | ClosureChecker.MAXIMAL
+                : classify(cand, diff ? ((CompactIdList) idLists.get(donor)).minus((CompactIdList) candList) : candList);
+        if (F != null && emits(flags)) F.emit(cand, ws);
+        if (next[parentIdx] == null) next[parentIdx] = new EqClass(storage, closure, arena, diff ? this : null);
+        next[parentIdx].add(cand, candList, diff ? donor : -1, donorSize, (flags & ClosureChecker.PRUNABLE) != 0);
+        ev.survivors++;
+        ev.idListBytes += candList.sizeInBytes();
+    }
+
+    /**
+     * Trả IdList của mọi thành viên về arena của thread hiện tại để các lớp cùng độ sâu dùng lại; lớp trở
+     * thành rỗng. Chỉ gọi khi cả cây con của lớp đã duyệt xong (mọi lớp con đã được mở rộng, nên không
+     * lớp con nào còn giữ lớp này làm donor) và không thread nào khác còn dùng lớp.
+     */
+    public void release() {
+        if (arena != null) {
+            for (int k = 0; k < patterns.size(); k++) {
+                if (idLists.get(k) instanceof CompactIdList l) arena.release(patterns.get(k).length, l.release());
+            }
+        }
+        patterns.clear();
+        idLists.clear();
+        parent = null;
+    }
+
+    /** Tổng byte IdList mà lớp đang giữ (diffset tính theo kích thước diff). */
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (IdList l : idLists) bytes += l.sizeInBytes();
+        return bytes;
+    }
+
+    /** Chỉ backend CompactIdList ghi được ra file tràn. */
+    boolean spillable() {
+        return storage != Storage.BITMAP;
+    }
+
+    /** Số byte {@link #writeTo} sẽ ghi; dựng lại diffset trước để lớp không còn phụ thuộc lớp cha. */
+    int spillSize() {
+        materialize();
+        long bytes = 4;
+        for (int k = 0; k < patterns.size(); k++) {
+            bytes += 4 + 4L * patterns.get(k).length + 4 + 1 + 4 + 8L * idLists.get(k).size();
+        }
+        if (bytes > Integer.MAX_VALUE) throw new IllegalStateException("Lớp quá lớn để ghi ra file tràn: " + bytes + " byte");
+        return (int) bytes;
+    }
+
+    /** Ghi các thành viên (pattern, |donor|, cờ BackScan, IdList) ra out; gọi sau {@link #spillSize}. */
+    void writeTo(ByteBuffer out) {
+        out.putInt(patterns.size());
+        for (int k = 0; k < patterns.size(); k++) {
+            int[] p = patterns.get(k);
+            out.putInt(p.length);
+            for (int x : p) out.putInt(x);
+            out.putInt(donorSizes[k]);
+            out.put((byte) (pruned[k] ? 1 : 0));
+            ((CompactIdList) idLists.get(k)).writeTo(out);
+        }
+    }
+
+    /** Nạp lại các thành viên đã ghi bằng {@link #writeTo} vào lớp này (đã rỗng sau {@link #release()}). */
+    void readFrom(ByteBuffer in) {
+        int n = in.getInt();
+        for (int k = 0; k < n; k++) {
+            int[] p = new int[in.getInt()];
+            for (int t = 0; t < p.length; t++) p[t] = in.getInt();
+            int donorSize = in.getInt();
+            boolean prune = in.get() != 0;
+            add(p, CompactIdList.readFrom(in, arena, p.length), -1, donorSize, prune);
+        }
+    }
+
+    /**
+     * Bản nhị phân của lớp (định dạng của {@link #writeTo}) để gửi sang process khác; diffset được dựng lại
+     * thành tidset nên bản này không phụ thuộc lớp cha. Dựng lại bằng {@link #fromBytes}.
+     */
+    public byte[] toBytes() {
+        if (!spillable()) throw new UnsupportedOperationException("Lớp backend bitmap không tuần tự hóa được");
+        byte[] bytes = new byte[spillSize()];
+        writeTo(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /** Lớp độc lập (Output.ALL, arena riêng) từ {@link #toBytes()}, mở rộng như lớp gốc của một cây con. */
+    public static EqClass fromBytes(byte[] bytes, Storage storage) {
+        if (storage == Storage.BITMAP) throw new UnsupportedOperationException("Lớp backend bitmap không tuần tự hóa được");
+        EqClass c = new EqClass(storage, null, new IdListArena(), null);
+        c.readFrom(ByteBuffer.wrap(bytes));
+        return c;
+    }
+
+    /** Cờ closure của pattern p (IdList đầy đủ fullList); với Output.ALL không kiểm tra gì. */
+    private int classify(int[] p, IdList fullList) {
+        return closure == null ? ClosureChecker.CLOSED | ClosureChecker.MAXIMAL
+                : closure.check(p, fullList.cids());
+    }
+
+    private boolean emits(int flags) {
+        return closure == null || (flags & (closure.maximal() ? ClosureChecker.MAXIMAL : ClosureChecker.CLOSED)) != 0;
+    }
+
+    static int[] append(int[] p, int x) {
+        int[] r = Arrays.copyOf(p, p.length + 1);
+        r[p.length] = x;
+        return r;
+    }
+}
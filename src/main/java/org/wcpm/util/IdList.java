@@ -0,0 +1,51 @@
+package org.wcpm.util;
+
+/**
+ * Biểu diễn dọc của một pattern: tập các lần xuất hiện (cid, pos) của phần tử cuối.
+ * Hai backend: {@link CompactIdList} (danh sách (cid, pos) nén) và {@link BitmapIdList}
+ * (bitmap theo vị trí, kiểu SPAM). Chỉ join được hai IdList cùng backend.
+ */
+public interface IdList {
+
+    enum JoinType {
+        /**
+         * Join p1 và p2 (khác nhau) để tạo <p1, last(p2)>
+         * (p1, pos1) và (p2, pos2) -> pos1 < pos2
+         */
+        S_STEP, // Sequence-step
+        /**
+         * Join p1 với chính nó để tạo <p1, last(p1)>
+         * (p1, pos1) và (p1, pos2) -> pos1 < pos2
+         */
+        I_STEP  // Itemset-step (trong bài báo gọi là join P1=P2)
+    }
+
+    /** Số lần xuất hiện được lưu. */
+    int size();
+
+    /**
+     * Weighted support tính từ các CID có mặt trong IdList (không quét lại CDB).
+     * cidWeights là mảng trọng số đánh chỉ số theo CID nội bộ ({@link org.wcpm.model.EncodedCDB#denseCidWeights()}).
+     */
+    double calculateSupport(double[] cidWeights, double totalWeight);
+
+    /** Số byte của các mảng dữ liệu mà IdList đang giữ (kể cả phần dự trữ), dùng cho thống kê bộ nhớ. */
+    long sizeInBytes();
+
+    /**
+     * Các CID phân biệt có mặt trong IdList, tăng dần. Đây là CID nội bộ của EncodedCDB; đổi về CID gốc
+     * bằng {@link org.wcpm.model.EncodedCDB#cidAt(int)}.
+     */
+    int[] cids();
+
+    /** Phép giao (join) cốt lõi của SPADE; other phải cùng backend với this. */
+    IdList join(IdList other, JoinType type);
+
+    /**
+     * Join có bỏ sớm: support của kết quả được cộng dồn theo từng CID ngay trong vòng join, đồng thời
+     * theo dõi trọng số còn có thể đạt được từ phần chưa xét của list2 (với I_STEP: của chính this).
+     * Ngay khi tổng hai phần không thể đạt minWs nữa thì dừng và trả về null.
+     * Kết quả (nếu có) đã gắn sẵn support, calculateSupport không phải duyệt lại.
+     */
+    IdList join(IdList other, JoinType type, double[] cidWeights, double totalWeight, double minWs);
+}
@@ -0,0 +1,80 @@
+package org.wcpm.util;
+
+import java.util.Arrays;
+
+/**
+ * Vùng cấp phát mảng cho CompactIdList trong một lượt khai phá, riêng cho mỗi worker (ThreadLocal,
+ * như bộ đệm của {@link ClosureChecker}).
+ * <ul>
+ *   <li>Bộ đệm join: mọi phép join ghi kết quả vào một mảng tạm dùng lại của thread; chỉ khi ứng viên
+ *       sống sót mới chép sang mảng riêng của nó. Join bỏ sớm / rỗng không cấp phát gì.</li>
+ *   <li>Danh sách mảng rảnh theo độ sâu (độ dài pattern) và theo cỡ (lũy thừa 2): khi một lớp tương
+ *       đương đã duyệt xong cả cây con, {@link EqClass#release()} trả cả lớp — một độ sâu của nhánh DFS —
+ *       về đây, và các lớp anh em ở cùng độ sâu lấy lại mảng thay vì cấp phát mới. Mảng chỉ được lấy
+ *       lại khi dài không quá 2 lần kích thước cần.</li>
+ * </ul>
+ * Mảng có thể được cấp phát ở thread này và trả về thread khác (lớp mở rộng song song theo khối hàng);
+ * điều đó an toàn vì mỗi danh sách rảnh chỉ được đọc/ghi bởi thread sở hữu nó. Arena thuộc về lượt
+ * chạy (giữ bởi các EqClass) nên bị thu gom cùng lượt chạy, không giữ bộ nhớ giữa các lượt.
+ */
+final class IdListArena {
+    /** Độ sâu / lớp cỡ lớn nhất được tái sử dụng; sâu hơn / lớn hơn thì cấp phát thường. */
+    static final int MAX_DEPTH = 64;
+    private static final int BUCKETS = 31;
+    /** Số mảng rảnh tối đa giữ lại cho mỗi (độ sâu, cỡ); phần dư để GC thu. */
+    private static final int MAX_FREE = 64;
+
+    private final ThreadLocal<Local> local = ThreadLocal.withInitial(Local::new);
+
+    private static final class Local {
+        long[] scratch = new long[0];
+        final long[][][][] free = new long[MAX_DEPTH + 1][][][]; // [độ sâu][cỡ] -> ngăn xếp
+        final int[][] count = new int[MAX_DEPTH + 1][];
+    }
+
+    /** Bộ đệm join của thread hiện tại, ít nhất capacity phần tử; chỉ hợp lệ tới lần gọi kế tiếp. */
+    long[] scratch(int capacity) {
+        Local l = local.get();
+        if (l.scratch.length < capacity) l.scratch = new long[Math.max(capacity, l.scratch.length + (l.scratch.length >> 1))];
+        return l.scratch;
+    }
+
+    /** Mảng dài ít nhất size cho một IdList ở độ sâu depth: lấy lại mảng rảnh nếu vừa, không thì cấp mới. */
+    long[] take(int depth, int size) {
+        if (size == 0 || depth > MAX_DEPTH) return new long[size];
+        Local l = local.get();
+        int b = bucket(size);
+        int[] count = l.count[depth];
+        if (count != null && count[b] > 0) {
+            long[][] stack = l.free[depth][b];
+            long[] a = stack[count[b] - 1];
+            if (a.length >= size) {
+                stack[--count[b]] = null;
+                return a;
+            }
+        }
+        return new long[size];
+    }
+
+    /** Trả một mảng không còn ai dùng về danh sách rảnh của độ sâu depth. */
+    void release(int depth, long[] a) {
+        if (a.length == 0 || depth > MAX_DEPTH) return;
+        Local l = local.get();
+        int b = bucket(a.length);
+        if (l.count[depth] == null) {
+            l.count[depth] = new int[BUCKETS];
+            l.free[depth] = new long[BUCKETS][][];
+        }
+        int[] count = l.count[depth];
+        long[][] stack = l.free[depth][b];
+        if (stack == null) l.free[depth][b] = stack = new long[4][];
+        if (count[b] == MAX_FREE) return;
+        if (count[b] == stack.length) l.free[depth][b] = stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[count[b]++] = a;
+    }
+
+    /** Lớp cỡ: floor(log2(n)); mảng trong lớp b dài từ 2^b tới dưới 2^(b+1). */
+    private static int bucket(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+}
@@ -0,0 +1,239 @@
+package org.wcpm.util;
+
+import jdk.jfr.*;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thống kê khai phá: theo từng độ sâu (độ dài pattern ứng viên) đếm số ứng viên, số bị WCMAP cắt,
+ * số join thực hiện, số join bỏ sớm, số pattern phổ biến còn lại và tổng byte IdList của chúng;
+ * cùng số task, thời gian bận của worker và hiệu suất sử dụng (bận / (thread * thời gian chạy)), số lớp
+ * bị đẩy ra / nạp lại từ file tràn ({@link SpillStore}), và với AP-Compact-SPADE số cây con duyệt kiểu HP
+ * / số lớp mở rộng kiểu DP.
+ *
+ * Hai kênh độc lập:
+ * <ul>
+ *   <li>Bộ đếm {@link LongAdder} (phân mảnh theo thread, không tranh chấp) — chỉ bật khi chạy với
+ *       {@code -Dwcpm.stats=true}. ENABLED là hằng static final nên khi tắt JIT loại bỏ hẳn nhánh ghi;
+ *       các bộ đếm cục bộ trong EqClass chỉ được cộng vào đây một lần cho mỗi lớp tương đương.</li>
+ *   <li>Sự kiện JFR ({@code org.wcpm.Expand}, {@code org.wcpm.Task}, {@code org.wcpm.Mine}, nhóm "WCPM"),
+ *       mỗi sự kiện ứng với một lớp / task / lượt khai phá chứ không phải từng join; khi không có
+ *       recording nào bật các sự kiện này thì begin/commit gần như không tốn gì.</li>
+ * </ul>
+ * Bộ đếm là toàn cục cho cả JVM và được reset khi một lượt khai phá bắt đầu ({@link #beginRun}),
+ * nên {@link #report()} mô tả lượt gần nhất; các lượt chạy đồng thời sẽ bị cộng lẫn vào nhau.
+ */
+public final class MiningStats {
+    public static final boolean ENABLED = Boolean.getBoolean("wcpm.stats");
+
+    /** Độ sâu lớn nhất được thống kê riêng; sâu hơn được gộp vào ô cuối. */
+    static final int MAX_DEPTH = 64;
+
+    private static final MiningStats GLOBAL = new MiningStats();
+
+    private final LongAdder[] candidates = adders(MAX_DEPTH + 1);
+    private final LongAdder[] wcmapPruned = adders(MAX_DEPTH + 1);
+    private final LongAdder[] joins = adders(MAX_DEPTH + 1);
+    private final LongAdder[] abandoned = adders(MAX_DEPTH + 1);
+    private final LongAdder[] survivors = adders(MAX_DEPTH + 1);
+    private final LongAdder[] idListBytes = adders(MAX_DEPTH + 1);
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder spills = new LongAdder();
+    private final LongAdder spilledBytes = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder adaptiveHorizontal = new LongAdder();
+    private final LongAdder adaptiveVertical = new LongAdder();
+    private volatile String miner = "";
+    private volatile int threads;
+    private volatile long wallNanos;
+
+    private MiningStats() {}
+
+    public static MiningStats global() {
+        return GLOBAL;
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] a = new LongAdder[n];
+        for (int i = 0; i < n; i++) a[i] = new LongAdder();
+        return a;
+    }
+
+    public void reset() {
+        for (LongAdder[] row : new LongAdder[][]{candidates, wcmapPruned, joins, abandoned, survivors, idListBytes}) {
+            for (LongAdder a : row) a.reset();
+        }
+        tasks.reset();
+        busyNanos.reset();
+        spills.reset();
+        spilledBytes.reset();
+        reloads.reset();
+        adaptiveHorizontal.reset();
+        adaptiveVertical.reset();
+        wallNanos = 0;
+    }
+
+    /**
+     * Ghi nhận kết quả mở rộng một lớp: các ứng viên độ dài depth. Gọi một lần cho mỗi lớp
+     * (không phải mỗi join); không làm gì khi ENABLED = false.
+     */
+    public static void recordLevel(int depth, int candidates, int wcmapPruned, int joins, int abandoned,
+                                   int survivors, long idListBytes) {
+        if (!ENABLED) return;
+        int d = Math.min(depth, MAX_DEPTH);
+        GLOBAL.candidates[d].add(candidates);
+        GLOBAL.wcmapPruned[d].add(wcmapPruned);
+        GLOBAL.joins[d].add(joins);
+        GLOBAL.abandoned[d].add(abandoned);
+        GLOBAL.survivors[d].add(survivors);
+        GLOBAL.idListBytes[d].add(idListBytes);
+    }
+
+    static void recordSpill(long bytes) {
+        if (!ENABLED) return;
+        GLOBAL.spills.increment();
+        GLOBAL.spilledBytes.add(bytes);
+    }
+
+    static void recordReload() {
+        if (ENABLED) GLOBAL.reloads.increment();
+    }
+
+    /** Ghi nhận lựa chọn của AP-Compact-SPADE: số cây con duyệt kiểu HP và số lớp mở rộng kiểu DP. */
+    public static void recordAdaptive(long horizontalSubtrees, long verticalClasses) {
+        if (!ENABLED) return;
+        GLOBAL.adaptiveHorizontal.add(horizontalSubtrees);
+        GLOBAL.adaptiveVertical.add(verticalClasses);
+    }
+
+    /** Sự kiện JFR cho một lần mở rộng lớp; EqClass điền các trường rồi gọi {@link #endExpand}. */
+    static ExpandEvent beginExpand(int depth, int members) {
+        ExpandEvent e = new ExpandEvent();
+        e.depth = depth;
+        e.members = members;
+        e.begin();
+        return e;
+    }
+
+    /** Cộng bộ đếm của một phần (khối hàng chạy song song) vào sự kiện của cả lớp. */
+    static void merge(ExpandEvent into, ExpandEvent part) {
+        into.candidates += part.candidates;
+        into.wcmapPruned += part.wcmapPruned;
+        into.joins += part.joins;
+        into.abandoned += part.abandoned;
+        into.survivors += part.survivors;
+        into.idListBytes += part.idListBytes;
+    }
+
+    static void endExpand(ExpandEvent e) {
+        e.end();
+        recordLevel(e.depth, e.candidates, e.wcmapPruned, e.joins, e.abandoned, e.survivors, e.idListBytes);
+        if (e.shouldCommit()) e.commit();
+    }
+
+    /** Bắt đầu một task của worker (một lớp/cây con được giao cho một thread). */
+    public static TaskEvent beginTask(String miner, int depth) {
+        TaskEvent e = new TaskEvent();
+        e.miner = miner;
+        e.depth = depth;
+        if (ENABLED) e.startNanos = System.nanoTime();
+        e.begin();
+        return e;
+    }
+
+    public static void endTask(TaskEvent e) {
+        e.end();
+        if (ENABLED) {
+            GLOBAL.tasks.increment();
+            GLOBAL.busyNanos.add(System.nanoTime() - e.startNanos);
+        }
+        if (e.shouldCommit()) e.commit();
+    }
+
+    /** Bắt đầu một lượt khai phá: reset bộ đếm (nếu bật) và mở sự kiện JFR của lượt. */
+    public static MineEvent beginRun(String miner, int threads, double minWs) {
+        MineEvent e = new MineEvent();
+        e.miner = miner;
+        e.threads = threads;
+        e.minWs = minWs;
+        if (ENABLED) {
+            GLOBAL.reset();
+            GLOBAL.miner = miner;
+            GLOBAL.threads = threads;
+            e.startNanos = System.nanoTime();
+        }
+        e.begin();
+        return e;
+    }
+
+    public static void endRun(MineEvent e, long patterns) {
+        e.end();
+        e.patterns = patterns;
+        if (ENABLED) GLOBAL.wallNanos = System.nanoTime() - e.startNanos;
+        if (e.shouldCommit()) e.commit();
+    }
+
+    /** Bảng thống kê của lượt gần nhất (rỗng nếu chưa bật -Dwcpm.stats=true). */
+    public String report() {
+        if (!ENABLED) return "";
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("[stats] %s%n", miner));
+        sb.append(String.format("  depth  candidates  wcmapPruned       joins   abandoned   survivors   idListKB%n"));
+        for (int d = 0; d <= MAX_DEPTH; d++) {
+            long c = candidates[d].sum(), s = survivors[d].sum();
+            if (c == 0 && s == 0) continue;
+            sb.append(String.format("  %5d %11d %12d %11d %11d %11d %10d%n", d, c, wcmapPruned[d].sum(),
+                    joins[d].sum(), abandoned[d].sum(), s, idListBytes[d].sum() / 1024));
+        }
+        long t = tasks.sum(), busy = busyNanos.sum(), wall = wallNanos;
+        sb.append(String.format("  tasks=%d, busy=%.2f ms, wall=%.2f ms, utilization=%.1f%%%n",
+                t, busy / 1e6, wall / 1e6, wall == 0 || threads == 0 ? 0.0 : 100.0 * busy / ((double) wall * threads)));
+        if (spills.sum() > 0) {
+            sb.append(String.format("  spills=%d (%.1f MB), reloads=%d%n",
+                    spills.sum(), spilledBytes.sum() / (1024.0 * 1024.0), reloads.sum()));
+        }
+        if (adaptiveHorizontal.sum() + adaptiveVertical.sum() > 0) {
+            sb.append(String.format("  adaptive: %d subtrees HP-SPADE, %d classes DP-SPADE%n",
+                    adaptiveHorizontal.sum(), adaptiveVertical.sum()));
+        }
+        return sb.toString();
+    }
+
+    @Name("org.wcpm.Expand")
+    @Label("Expand Equivalence Class")
+    @Category("WCPM")
+    @StackTrace(false)
+    static final class ExpandEvent extends Event {
+        @Label("Depth") int depth;
+        @Label("Members") int members;
+        @Label("Candidates") int candidates;
+        @Label("WCMAP Pruned") int wcmapPruned;
+        @Label("Joins") int joins;
+        @Label("Abandoned Joins") int abandoned;
+        @Label("Survivors") int survivors;
+        @Label("IdList Bytes") @DataAmount long idListBytes;
+    }
+
+    @Name("org.wcpm.Task")
+    @Label("Mining Task")
+    @Category("WCPM")
+    @StackTrace(false)
+    public static final class TaskEvent extends Event {
+        @Label("Miner") String miner;
+        @Label("Depth") int depth;
+        transient long startNanos;
+    }
+
+    @Name("org.wcpm.Mine")
+    @Label("Mining Run")
+    @Category("WCPM")
+    @StackTrace(false)
+    public static final class MineEvent extends Event {
+        @Label("Miner") String miner;
+        @Label("Threads") int threads;
+        @Label("Min Weighted Support") double minWs;
+        @Label("Patterns") long patterns;
+        transient long startNanos;
+    }
+}
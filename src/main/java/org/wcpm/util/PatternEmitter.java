@@ -0,0 +1,102 @@
+package org.wcpm.util;
+
+import org.wcpm.miner.PatternSink;
+import org.wcpm.model.EncodedCDB;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cầu nối giữa các worker của một lượt khai phá và {@link PatternSink}. Mỗi thread ghi pattern (dạng id đã
+ * mã hóa) vào bộ đệm riêng, không khóa; khi đầy {@link #BATCH} pattern, thread tự giải mã cả lô rồi giao
+ * cho sink trong một lần giữ khóa. Các worker không tranh nhau một tập hợp chung như
+ * ConcurrentHashMap.newKeySet(), và kết quả không phải nằm hết trên heap.
+ *
+ * Mảng pattern truyền vào {@link #emit} không được sửa sau đó (các miner luôn tạo mảng mới cho mỗi pattern).
+ * {@link #finish()} giao nốt phần còn trong mọi bộ đệm, gọi khi mọi worker đã xong.
+ *
+ * Với {@link IdSink} pattern được giao nguyên dạng id, không giải mã (vd. worker gửi kết quả qua socket).
+ */
+public final class PatternEmitter {
+    static final int BATCH = 1024;
+
+    private final EncodedCDB enc;
+    private final PatternSink sink;
+    private final IdSink idSink;
+    private final List<Buffer> buffers = new ArrayList<>();
+    private final ThreadLocal<Buffer> local = ThreadLocal.withInitial(this::register);
+    private long delivered;
+
+    public PatternEmitter(EncodedCDB enc, PatternSink sink) {
+        this.enc = enc;
+        this.sink = sink;
+        this.idSink = null;
+    }
+
+    public PatternEmitter(IdSink idSink) {
+        this.enc = null;
+        this.sink = null;
+        this.idSink = idSink;
+    }
+
+    /** Đích nhận pattern dạng id item (theo EncodedCDB của lượt chạy), không giải mã về String. */
+    @FunctionalInterface
+    public interface IdSink {
+        void accept(int[] pattern, double weightedSupport);
+    }
+
+    private static final class Buffer {
+        final int[][] patterns = new int[BATCH][];
+        final double[] supports = new double[BATCH];
+        int size;
+    }
+
+    private Buffer register() {
+        Buffer b = new Buffer();
+        synchronized (buffers) {
+            buffers.add(b);
+        }
+        return b;
+    }
+
+    /** Ghi một pattern phổ biến cùng weighted support của nó. */
+    public void emit(int[] pattern, double weightedSupport) {
+        Buffer b = local.get();
+        b.patterns[b.size] = pattern;
+        b.supports[b.size] = weightedSupport;
+        if (++b.size == BATCH) flush(b);
+    }
+
+    private void flush(Buffer b) {
+        int n = b.size;
+        if (n == 0) return;
+        if (idSink != null) {
+            synchronized (this) {
+                for (int i = 0; i < n; i++) idSink.accept(b.patterns[i], b.supports[i]);
+                delivered += n;
+            }
+            Arrays.fill(b.patterns, 0, n, null);
+            b.size = 0;
+            return;
+        }
+        List<List<String>> decoded = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) decoded.add(enc.decode(b.patterns[i])); // giải mã ngoài khóa
+        Arrays.fill(b.patterns, 0, n, null);
+        b.size = 0;
+        synchronized (this) {
+            for (int i = 0; i < n; i++) sink.accept(decoded.get(i), b.supports[i]);
+            delivered += n;
+        }
+    }
+
+    /** Giao phần còn lại của mọi bộ đệm; trả về tổng số pattern đã giao trong lượt. */
+    public long finish() {
+        synchronized (buffers) {
+            for (Buffer b : buffers) flush(b);
+        }
+        synchronized (this) {
+            return delivered;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.wcpm.util;
+
+import org.wcpm.miner.PatternSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Chỉ mục kết quả khai phá dạng prefix trie, mã hóa item bằng id int, lưu trong các mảng phẳng:
+ * <pre>
+ *   item[n]        : id item trên cạnh từ cha tới nút n (gốc: -1)
+ *   support[n]     : weighted support của pattern kết thúc ở n (NaN nếu n chỉ là prefix, vd. Output.CLOSED)
+ *   firstChild[n]  : con của n là các nút firstChild[n] .. firstChild[n+1]-1, sắp theo id item
+ * </pre>
+ * Các nút được đánh số theo BFS nên con của một nút nằm liền nhau: {@link #support} đi xuống từng mức bằng
+ * tìm kiếm nhị phân, {@link #children} là một đoạn mảng — không phải quét lại toàn bộ tập kết quả.
+ *
+ * Dựng bằng {@link Builder}, một {@link PatternSink} nhận pattern ngay trong lúc miner duyệt DFS;
+ * lưu / nạp bằng {@link #write} / {@link #read}.
+ */
+public final class PatternTrie {
+    private static final int MAGIC = 0x57545249; // "WTRI"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    private final String[] dictionary;
+    private final Map<String, Integer> ids;
+    private final int[] item;
+    private final double[] support;
+    private final int[] firstChild;
+    private final int patterns;
+
+    private PatternTrie(String[] dictionary, int[] item, double[] support, int[] firstChild, int patterns) {
+        this.dictionary = dictionary;
+        this.ids = new HashMap<>(dictionary.length * 2);
+        for (int i = 0; i < dictionary.length; i++) ids.put(dictionary[i], i);
+        this.item = item;
+        this.support = support;
+        this.firstChild = firstChild;
+        this.patterns = patterns;
+    }
+
+    /** Số pattern trong chỉ mục. */
+    public int size() { return patterns; }
+
+    /** Số nút của trie (kể cả gốc). */
+    public int nodes() { return item.length; }
+
+    /** Weighted support của pattern, NaN nếu pattern không có trong kết quả. */
+    public double support(List<String> pattern) {
+        int n = find(pattern);
+        return n < 0 ? Double.NaN : support[n];
+    }
+
+    public boolean contains(List<String> pattern) {
+        return !Double.isNaN(support(pattern));
+    }
+
+    /**
+     * Các item x sao cho prefix + x là pattern trong kết quả, cùng support của prefix + x, theo support
+     * giảm dần ("sau /cart -> /checkout thường là gì?"). Prefix rỗng cho các 1-pattern.
+     */
+    public Map<String, Double> children(List<String> prefix) {
+        int n = find(prefix);
+        if (n < 0) return Map.of();
+        List<Integer> kids = new ArrayList<>();
+        for (int c = firstChild[n]; c < firstChild[n + 1]; c++) if (!Double.isNaN(support[c])) kids.add(c);
+        kids.sort((a, b) -> Double.compare(support[b], support[a]));
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (int c : kids) out.put(dictionary[item[c]], support[c]);
+        return out;
+    }
+
+    /** Giao mọi pattern (thứ tự DFS theo id item) cho sink. */
+    public void forEach(PatternSink sink) {
+        forEach(0, new ArrayList<>(), sink);
+    }
+
+    private void forEach(int n, List<String> prefix, PatternSink sink) {
+        for (int c = firstChild[n]; c < firstChild[n + 1]; c++) {
+            prefix.add(dictionary[item[c]]);
+            if (!Double.isNaN(support[c])) sink.accept(List.copyOf(prefix), support[c]);
+            forEach(c, prefix, sink);
+            prefix.remove(prefix.size() - 1);
+        }
+    }
+
+    /** Nút của pattern, -1 nếu không có. */
+    private int find(List<String> pattern) {
+        int n = 0;
+        for (String s : pattern) {
+            Integer x = ids.get(s);
+            if (x == null) return -1;
+            int lo = firstChild[n], hi = firstChild[n + 1] - 1;
+            n = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (item[mid] < x) lo = mid + 1;
+                else if (item[mid] > x) hi = mid - 1;
+                else { n = mid; break; }
+            }
+            if (n < 0) return -1;
+        }
+        return n;
+    }
+
+    /**
+     * Nhận pattern từ miner (qua các lô của {@link PatternEmitter}, tuần tự) và dựng trie tăng dần: mỗi
+     * nút là một cặp (cha, item) trong bảng băm địa chỉ mở, các nút trong mảng phẳng theo thứ tự tạo.
+     * {@link #build()} sắp lại các nút theo BFS thành {@link PatternTrie}.
+     */
+    public static final class Builder implements PatternSink {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        private int[] item = new int[16], parent = new int[16];
+        private double[] support = new double[16];
+        private int nodes = 1, patterns;
+        private long[] keys = new long[64];   // (cha << 32 | item) + 1, 0 = ô trống
+        private int[] values = new int[64];
+
+        public Builder() {
+            item[0] = -1;
+            parent[0] = -1;
+            support[0] = Double.NaN;
+        }
+
+        @Override
+        public void accept(List<String> pattern, double weightedSupport) {
+            int n = 0;
+            for (String s : pattern) {
+                Integer x = ids.get(s);
+                if (x == null) {
+                    ids.put(s, x = dictionary.size());
+                    dictionary.add(s);
+                }
+                n = child(n, x);
+            }
+            if (Double.isNaN(support[n])) patterns++;
+            support[n] = weightedSupport;
+        }
+
+        /** Con của n theo item x, tạo mới nếu chưa có. */
+        private int child(int n, int x) {
+            long key = ((long) n << 32 | x) + 1;
+            int mask = keys.length - 1;
+            int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) return values[slot];
+                slot = (slot + 1) & mask;
+            }
+            if (nodes == item.length) {
+                item = Arrays.copyOf(item, nodes * 2);
+                parent = Arrays.copyOf(parent, nodes * 2);
+                support = Arrays.copyOf(support, nodes * 2);
+            }
+            int c = nodes++;
+            item[c] = x;
+            parent[c] = n;
+            support[c] = Double.NaN;
+            keys[slot] = key;
+            values[slot] = c;
+            if (nodes * 2 > keys.length) rehash();
+            return c;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) continue;
+                int slot = Long.hashCode(oldKeys[i] * 0x9E3779B97F4A7C15L) & mask;
+                while (keys[slot] != 0) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        public int size() { return patterns; }
+
+        /** Trie bất biến: các nút đánh số lại theo BFS, con của mỗi nút sắp theo id item. */
+        public PatternTrie build() {
+            // Danh sách con theo cha (dạng CSR theo id nút cũ)
+            int[] start = new int[nodes + 1];
+            for (int c = 1; c < nodes; c++) start[parent[c] + 1]++;
+            for (int n = 0; n < nodes; n++) start[n + 1] += start[n];
+            int[] kids = new int[Math.max(0, nodes - 1)];
+            int[] fill = Arrays.copyOf(start, nodes);
+            for (int c = 1; c < nodes; c++) kids[fill[parent[c]]++] = c;
+
+            int[] newItem = new int[nodes], firstChild = new int[nodes + 1];
+            double[] newSupport = new double[nodes];
+            int[] order = new int[nodes]; // id mới -> id cũ
+            newItem[0] = -1;
+            newSupport[0] = Double.NaN;
+            long[] sorted = new long[16]; // (item << 32 | id cũ) để sắp con theo item
+            int tail = 1;
+            for (int head = 0; head < nodes; head++) {
+                int old = order[head];
+                firstChild[head] = tail;
+                int from = start[old], to = start[old + 1];
+                if (sorted.length < to - from) sorted = new long[to - from];
+                for (int k = from; k < to; k++) sorted[k - from] = (long) item[kids[k]] << 32 | kids[k];
+                Arrays.sort(sorted, 0, to - from);
+                for (int k = 0; k < to - from; k++) {
+                    int c = (int) sorted[k];
+                    order[tail] = c;
+                    newItem[tail] = item[c];
+                    newSupport[tail] = support[c];
+                    tail++;
+                }
+            }
+            firstChild[nodes] = tail;
+            return new PatternTrie(dictionary.toArray(new String[0]), newItem, newSupport, firstChild, patterns);
+        }
+    }
+
+    /**
+     * Ghi trie ra file (little-endian, các section căn 8 byte):
+     * <pre>
+     *   header     : magic "WTRI", version, nodes, alphabetSize, patterns, (đệm)
+     *   dict       : alphabetSize x (int len, UTF-8 bytes)
+     *   support    : double[nodes]
+     *   item       : int[nodes]
+     *   firstChild : int[nodes + 1]
+     * </pre>
+     */
+    public void write(Path out) throws IOException {
+        int nodes = item.length;
+        byte[][] dict = new byte[dictionary.length][];
+        long dictBytes = 0;
+        for (int i = 0; i < dict.length; i++) {
+            dict[i] = dictionary[i].getBytes(StandardCharsets.UTF_8);
+            dictBytes += 4 + dict[i].length;
+        }
+        long supportOffset = align(HEADER_BYTES + dictBytes);
+        long itemOffset = supportOffset + 8L * nodes;
+        long childOffset = itemOffset + 4L * nodes;
+        long size = childOffset + 4L * (nodes + 1);
+        if (size > Integer.MAX_VALUE) throw new IOException("Trie pattern quá lớn cho một vùng map: " + size + " byte");
+
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(dict.length).putInt(patterns).putInt(0);
+            for (byte[] b : dict) buf.putInt(b.length).put(b);
+            section(buf, supportOffset, 8L * nodes).asDoubleBuffer().put(support);
+            section(buf, itemOffset, 4L * nodes).asIntBuffer().put(item);
+            section(buf, childOffset, 4L * (nodes + 1)).asIntBuffer().put(firstChild);
+            buf.force();
+        }
+    }
+
+    public static PatternTrie read(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) throw new IOException("Không phải file trie pattern: " + path);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC) throw new IOException("Không phải file trie pattern: " + path);
+            int version = buf.getInt();
+            if (version != VERSION) throw new IOException("Phiên bản trie pattern không hỗ trợ " + version + ": " + path);
+            int nodes = buf.getInt(), alphabet = buf.getInt(), patterns = buf.getInt();
+            buf.getInt();
+            String[] dictionary = new String[alphabet];
+            for (int i = 0; i < alphabet; i++) {
+                byte[] b = new byte[buf.getInt()];
+                buf.get(b);
+                dictionary[i] = new String(b, StandardCharsets.UTF_8);
+            }
+            long supportOffset = align(buf.position());
+            long itemOffset = supportOffset + 8L * nodes;
+            long childOffset = itemOffset + 4L * nodes;
+            double[] support = new double[nodes];
+            int[] item = new int[nodes], firstChild = new int[nodes + 1];
+            section(buf, supportOffset, 8L * nodes).asDoubleBuffer().get(support);
+            section(buf, itemOffset, 4L * nodes).asIntBuffer().get(item);
+            section(buf, childOffset, 4L * (nodes + 1)).asIntBuffer().get(firstChild);
+            return new PatternTrie(dictionary, item, support, firstChild, patterns);
+        }
+    }
+
+    private static ByteBuffer section(MappedByteBuffer buf, long offset, long bytes) {
+        return buf.slice((int) offset, (int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+}
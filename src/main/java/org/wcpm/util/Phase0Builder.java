@@ -12,21 +12,28 @@ public class Phase0Builder {
     public static class Phase0 {
         public final List<List<String>> F1; // các 1-pattern frequent
         public final Map<List<String>, List<List<String>>> classes2; // [a] -> danh sách 2-pattern (a, b)
+        public final Map<List<String>, Double> supports; // weighted support của mọi pattern trong F1 và F2
 
         public Phase0(List<List<String>> f1,
-                      Map<List<String>, List<List<String>>> classes2) {
+                      Map<List<String>, List<List<String>>> classes2,
+                      Map<List<String>, Double> supports) {
             this.F1 = f1;
             this.classes2 = classes2;
+            this.supports = supports;
         }
     }
 
     public static Phase0 buildPhase0(CDB cdb, double minWs, WCMAP wcmap) {
         // 1) F1
         List<List<String>> F1 = new ArrayList<>();
+        Map<List<String>, Double> supports = new HashMap<>();
         for (String a : cdb.alphabet()) {
             var p = List.of(a);
             double ws = Seqs.weightedSupport(p, cdb);
-            if (ws >= minWs) F1.add(p);
+            if (ws >= minWs) {
+                F1.add(p);
+                supports.put(p, ws);
+            }
         }
 
         // 2) Sinh tất cả 2-pattern từ F1 theo §4.2 (p1 != p2 → (a,b) & (b,a); p1 == p2 → (a,a))
@@ -52,7 +59,10 @@ public class Phase0Builder {
                     if (wcmap.get(x, y) < minWs) continue;
 
                     double ws = Seqs.weightedSupport(cand, cdb);
-                    if (ws >= minWs) F2.add(cand);
+                    if (ws >= minWs) {
+                        F2.add(cand);
+                        supports.put(cand, ws);
+                    }
                 }
             }
         }
@@ -72,6 +82,6 @@ public class Phase0Builder {
             e.sort(Comparator.comparing((List<String> p) -> p.get(0))
                     .thenComparing(p -> p.get(1)));
         }
-        return new Phase0(F1, classes2);
+        return new Phase0(F1, classes2, supports);
     }
 }
@@ -0,0 +1,108 @@
+package org.wcpm.util;
+
+import org.wcpm.model.EncodedCDB;
+
+/**
+ * CSDL chiếu giả (pseudo-projection) của một prefix, kiểu PrefixSpan: không sao chép hậu tố mà chỉ lưu
+ * cặp (dòng, vị trí bắt đầu hậu tố) cho mỗi chuỗi chứa prefix. Hậu tố của dòng rows[k] là
+ * flatItems()[starts[k] .. end(rows[k])), bắt đầu ngay sau lần khớp sớm nhất của prefix.
+ * Các dòng luôn theo thứ tự tăng dần như trong CDB.
+ */
+public final class Projection {
+    private final int[] rows;
+    private final int[] starts;
+    private final int size;
+    private final long suffixItems; // tổng độ dài hậu tố: khối lượng một lượt quét để mở rộng
+
+    Projection(int[] rows, int[] starts, int size, long suffixItems) {
+        this.rows = rows;
+        this.starts = starts;
+        this.size = size;
+        this.suffixItems = suffixItems;
+    }
+
+    /** Phép chiếu của prefix rỗng: mọi dòng, hậu tố là cả chuỗi. */
+    public static Projection root(EncodedCDB enc) {
+        int n = enc.size();
+        int[] rows = new int[n], starts = new int[n];
+        for (int r = 0; r < n; r++) {
+            rows[r] = r;
+            starts[r] = enc.start(r);
+        }
+        return new Projection(rows, starts, n, enc.flatItems().length);
+    }
+
+    public int size() { return size; }
+    public int row(int k) { return rows[k]; }
+    public int start(int k) { return starts[k]; }
+    public long suffixItems() { return suffixItems; }
+
+    public long sizeInBytes() { return 8L * size; }
+
+    /**
+     * Mở rộng prefix bằng từng item: hai lượt quét các hậu tố.
+     * <ol>
+     *   <li>đếm weighted support của mọi item xuất hiện trong hậu tố (mỗi dòng tính một lần);</li>
+     *   <li>với các item được giữ lại (keep), ghi vị trí ngay sau lần xuất hiện đầu tiên của item
+     *       trong mỗi hậu tố thành phép chiếu của prefix + item.</li>
+     * </ol>
+     * keep nhận (item, weighted support) và quyết định item có được mở rộng hay không; kết quả là
+     * phép chiếu theo item (null cho item bị loại), mảng đánh số theo id item.
+     */
+    public Projection[] extend(EncodedCDB enc, ItemFilter keep) {
+        int[] flat = enc.flatItems();
+        int alphabet = enc.alphabetSize();
+        int[] seen = new int[alphabet];   // k+1 khi item đã được đếm cho dòng thứ k của phép chiếu
+        int[] count = new int[alphabet];
+        double[] weight = new double[alphabet];
+
+        for (int k = 0; k < size; k++) {
+            int r = rows[k], end = enc.end(r);
+            double w = enc.weight(r);
+            for (int p = starts[k]; p < end; p++) {
+                int x = flat[p];
+                if (seen[x] == k + 1) continue;
+                seen[x] = k + 1;
+                count[x]++;
+                weight[x] += w; // cộng theo thứ tự dòng, giống Seqs.weightedSupport
+            }
+        }
+
+        Projection[] out = new Projection[alphabet];
+        int[][] outRows = new int[alphabet][], outStarts = new int[alphabet][];
+        int[] fill = new int[alphabet];
+        long[] items = new long[alphabet];
+        boolean any = false;
+        for (int x = 0; x < alphabet; x++) {
+            if (count[x] == 0 || !keep.test(x, weight[x] / enc.totalWeight())) continue;
+            outRows[x] = new int[count[x]];
+            outStarts[x] = new int[count[x]];
+            any = true;
+        }
+        if (!any) return out;
+
+        for (int k = 0; k < size; k++) {
+            int r = rows[k], end = enc.end(r);
+            for (int p = starts[k]; p < end; p++) {
+                int x = flat[p];
+                if (seen[x] == -(k + 1)) continue;
+                seen[x] = -(k + 1);
+                if (outRows[x] == null) continue;
+                int i = fill[x]++;
+                outRows[x][i] = r;
+                outStarts[x][i] = p + 1;
+                items[x] += end - (p + 1);
+            }
+        }
+        for (int x = 0; x < alphabet; x++) {
+            if (outRows[x] != null) out[x] = new Projection(outRows[x], outStarts[x], count[x], items[x]);
+        }
+        return out;
+    }
+
+    /** Điều kiện giữ một item mở rộng, theo id item và weighted support của prefix + item. */
+    @FunctionalInterface
+    public interface ItemFilter {
+        boolean test(int item, double ws);
+    }
+}
@@ -0,0 +1,167 @@
+package org.wcpm.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Giới hạn bộ nhớ cho các lớp tương đương đang chờ được duyệt (anh em của nhánh DFS hiện tại, 1-class
+ * trong hàng đợi của HP, lớp con đã fork của DP). Miner "gửi" (park) từng lớp chờ vào đây và "lấy lại"
+ * (take) khi tới lượt. Nếu tổng byte IdList của các lớp chờ đang nằm trên heap vượt ngân sách, lớp mới
+ * gửi được dựng lại thành tidset, ghi ra file tràn ánh xạ bộ nhớ (memory-mapped) và trả IdList của nó
+ * về arena; khi tới lượt thì nạp lại. Lớp gửi sau được duyệt sau nên là lớp bị đẩy ra trước.
+ *
+ * Ngân sách chỉ tính các lớp chờ: các lớp trên nhánh DFS đang duyệt (mỗi độ sâu một lớp) luôn nằm
+ * trên heap. Cấu hình bằng {@code -Dwcpm.memoryBudgetMb=<MB>} (hoặc {@code auto} = 1/4 heap tối đa)
+ * và {@code -Dwcpm.spillDir=<thư mục>} (mặc định java.io.tmpdir); không đặt thì không giới hạn và không
+ * có file nào được tạo. Lớp backend bitmap không đẩy ra được nên luôn ở lại heap.
+ *
+ * File tràn được cấp theo đoạn {@link #SEGMENT_BYTES} (lớp lớn hơn có đoạn riêng), vùng của lớp đã nạp
+ * lại không được dùng lại; mọi file bị xóa khi {@link #close()} ở cuối lượt chạy.
+ */
+public final class SpillStore implements AutoCloseable {
+    static final int SEGMENT_BYTES = 64 << 20;
+
+    private final long budget;
+    private final Path dir;
+    private final AtomicLong resident = new AtomicLong(); // byte IdList của các lớp chờ còn trên heap
+    private final LongAdder spills = new LongAdder();
+    private final LongAdder spilledBytes = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final List<Path> files = new ArrayList<>();
+    private MappedByteBuffer segment;
+    private int segmentUsed;
+
+    public SpillStore(long budgetBytes, Path dir) {
+        if (budgetBytes < 0) throw new IllegalArgumentException("Ngân sách bộ nhớ phải >= 0: " + budgetBytes);
+        this.budget = budgetBytes;
+        this.dir = dir;
+    }
+
+    /** Không giới hạn: park/take chỉ bọc lớp lại, không tính byte, không ghi file. */
+    public static SpillStore unbounded() {
+        return new SpillStore(Long.MAX_VALUE, null);
+    }
+
+    /** Theo -Dwcpm.memoryBudgetMb / -Dwcpm.spillDir; không đặt ngân sách thì {@link #unbounded()}. */
+    public static SpillStore fromSystemProperties() {
+        String mb = System.getProperty("wcpm.memoryBudgetMb");
+        if (mb == null || mb.isBlank()) return unbounded();
+        long budget = mb.trim().equalsIgnoreCase("auto")
+                ? Runtime.getRuntime().maxMemory() / 4
+                : Long.parseLong(mb.trim()) << 20;
+        return new SpillStore(budget, Path.of(System.getProperty("wcpm.spillDir", System.getProperty("java.io.tmpdir"))));
+    }
+
+    public boolean bounded() {
+        return budget != Long.MAX_VALUE;
+    }
+
+    /**
+     * Một lớp đang chờ: trên heap, hoặc đã đẩy ra (region != null) và chỉ còn vỏ rỗng. Chi phí join
+     * được ghi lại lúc gửi để miner quyết định fork mà không phải nạp lại lớp.
+     */
+    public static final class Pending {
+        private final EqClass eqClass;
+        private final long bytes;     // byte đã tính vào resident (0 nếu đã đẩy ra)
+        private final long joinCost;
+        private ByteBuffer region;
+
+        private Pending(EqClass eqClass, long bytes, ByteBuffer region) {
+            this.eqClass = eqClass;
+            this.bytes = bytes;
+            this.joinCost = eqClass.joinCost();
+            this.region = region;
+        }
+
+        /** {@link EqClass#joinCost()} của lớp lúc được gửi. */
+        public long joinCost() { return joinCost; }
+    }
+
+    /** Gửi một lớp chờ; miner không được giữ tham chiếu nào khác tới lớp cho tới khi {@link #take}. */
+    public Pending park(EqClass c) {
+        if (!bounded()) return new Pending(c, 0, null);
+        long bytes = c.sizeInBytes();
+        if (!c.spillable() || resident.addAndGet(bytes) <= budget) return new Pending(c, bytes, null);
+        resident.addAndGet(-bytes);
+
+        int size = c.spillSize();
+        ByteBuffer region = allocate(size);
+        c.writeTo(region.duplicate().order(ByteOrder.nativeOrder()));
+        Pending p = new Pending(c, 0, region);
+        c.release();
+        spills.increment();
+        spilledBytes.add(size);
+        MiningStats.recordSpill(size);
+        return p;
+    }
+
+    /** Gửi lần lượt mọi lớp trong classes (theo thứ tự duyệt). */
+    public List<Pending> parkAll(List<EqClass> classes) {
+        List<Pending> out = new ArrayList<>(classes.size());
+        for (EqClass c : classes) out.add(park(c));
+        return out;
+    }
+
+    /** Lấy lại lớp để duyệt, nạp từ file tràn nếu nó đã bị đẩy ra. Mỗi Pending chỉ được lấy một lần. */
+    public EqClass take(Pending p) {
+        if (p.region == null) {
+            if (p.bytes != 0) resident.addAndGet(-p.bytes);
+            return p.eqClass;
+        }
+        p.eqClass.readFrom(p.region.duplicate().order(ByteOrder.nativeOrder()));
+        p.region = null; // đoạn file được giải phóng ánh xạ khi không còn lớp nào trỏ tới
+        reloads.increment();
+        MiningStats.recordReload();
+        return p.eqClass;
+    }
+
+    /** Cấp một vùng size byte trong đoạn file tràn hiện tại, mở đoạn mới khi hết chỗ. */
+    private synchronized ByteBuffer allocate(int size) {
+        if (segment == null || segment.capacity() - segmentUsed < size) {
+            int length = Math.max(SEGMENT_BYTES, size);
+            try {
+                Files.createDirectories(dir);
+                Path file = Files.createTempFile(dir, "wcpm-spill-", ".bin");
+                files.add(file);
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    segment = ch.map(FileChannel.MapMode.READ_WRITE, 0, length); // ánh xạ vẫn dùng được sau khi đóng kênh
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Không tạo được file tràn trong " + dir, e);
+            }
+            segmentUsed = 0;
+        }
+        ByteBuffer region = segment.slice(segmentUsed, size);
+        segmentUsed += size;
+        return region;
+    }
+
+    public long spills() { return spills.sum(); }
+    public long spilledBytes() { return spilledBytes.sum(); }
+    public long reloads() { return reloads.sum(); }
+
+    /** Xóa các file tràn của lượt chạy. */
+    @Override
+    public synchronized void close() {
+        segment = null;
+        for (Path f : files) {
+            try {
+                Files.deleteIfExists(f);
+            } catch (IOException ignored) {
+                // file tạm trong thư mục tạm: để hệ điều hành dọn nếu không xóa được
+            }
+        }
+        files.clear();
+    }
+}
@@ -0,0 +1,73 @@
+package org.wcpm.util;
+
+import java.util.*;
+
+/**
+ * Bộ gom kết quả cho chế độ top-k: giữ các pattern có weighted support cao nhất và một ngưỡng chỉ tăng.
+ *
+ * Ngưỡng bắt đầu từ floor (thường là 0) và được nâng lên support của pattern thứ k mỗi khi đã có đủ k
+ * pattern. Ngưỡng là một biến volatile: các worker đọc nó không cần khóa ở mỗi phép join để cắt tỉa cây
+ * con của mình theo cận hiện tại; chỉ việc chèn pattern (hiếm hơn nhiều) mới lấy khóa của bộ gom.
+ * Vì support không tăng khi kéo dài pattern, cắt tỉa theo ngưỡng tạm thời (không lớn hơn ngưỡng cuối)
+ * là an toàn.
+ *
+ * Các pattern bằng support với pattern thứ k đều được giữ, nên kết quả có thể nhiều hơn k
+ * nhưng không phụ thuộc vào thứ tự các thread tìm ra chúng.
+ */
+public final class TopK {
+    private final int k;
+    private final TreeMap<Double, List<List<String>>> bySupport = new TreeMap<>();
+    private int count;
+    private volatile double threshold;
+
+    public TopK(int k) { this(k, 0.0); }
+
+    public TopK(int k, double floor) {
+        if (k <= 0) throw new IllegalArgumentException("k phải dương: " + k);
+        this.k = k;
+        this.threshold = floor;
+    }
+
+    /** Ngưỡng hiện tại (đọc không khóa); một pattern chỉ có thể vào top-k nếu support >= ngưỡng này. */
+    public double threshold() {
+        return threshold;
+    }
+
+    /**
+     * Thêm pattern với support ws. Trả về false nếu pattern nằm dưới ngưỡng hiện tại (khi đó mọi
+     * pattern mở rộng từ nó cũng vậy, có thể cắt cả cây con).
+     */
+    public boolean offer(List<String> pattern, double ws) {
+        if (ws < threshold) return false; // đường nhanh, không khóa
+        synchronized (this) {
+            if (ws < threshold) return false;
+            bySupport.computeIfAbsent(ws, x -> new ArrayList<>()).add(pattern);
+            count++;
+            // Bỏ nhóm support thấp nhất khi phần còn lại vẫn đủ k pattern
+            while (count - bySupport.firstEntry().getValue().size() >= k) {
+                count -= bySupport.pollFirstEntry().getValue().size();
+            }
+            if (count >= k && bySupport.firstKey() > threshold) threshold = bySupport.firstKey();
+            return true;
+        }
+    }
+
+    /** Kết quả theo support giảm dần (cùng support thì theo thứ tự từ điển của pattern). */
+    public synchronized Set<List<String>> result() {
+        Set<List<String>> out = new LinkedHashSet<>();
+        for (List<List<String>> group : bySupport.descendingMap().values()) {
+            List<List<String>> sorted = new ArrayList<>(group);
+            sorted.sort(TopK::compareLex);
+            out.addAll(sorted);
+        }
+        return out;
+    }
+
+    private static int compareLex(List<String> a, List<String> b) {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = a.get(i).compareTo(b.get(i));
+            if (c != 0) return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+}
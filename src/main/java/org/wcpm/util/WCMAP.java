@@ -1,25 +1,327 @@
 package org.wcpm.util;
 import org.wcpm.model.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
 
+/**
+ * WCMAP: weighted support của cặp (x, y) = tổng trọng số các chuỗi có x đứng trước y, chia cho tổng trọng số.
+ * Khóa là cặp id int (theo {@link EncodedCDB}):
+ *  - alphabet nhỏ: ma trận float dày đặc n*n;
+ *  - alphabet lớn: bảng băm địa chỉ mở long -> float (khóa = x << 32 | y).
+ * Giá trị lưu dạng float được làm tròn LÊN, nên vẫn là cận trên an toàn cho phép cắt tỉa.
+ */
 public class WCMAP {
-    private final Map<String, Double> wc = new HashMap<>(); // key: a+"\u0001"+b
-    public static String key(String a, String b){ return a+"\u0001"+b; }
-    public double get(String a, String b){ return wc.getOrDefault(key(a,b), 0.0); }
-
-    public static WCMAP build(CDB cdb) {
-        Map<String, Double> accum = new HashMap<>();
-        double total = cdb.totalWeight();
-        for (var r : cdb.rows()) {
-            Set<String> pairs = new HashSet<>();
-            var s = r.seq();
-            for (int i=0;i<s.size();i++)
-                for (int j=i+1;j<s.size();j++)
-                    pairs.add(key(s.get(i), s.get(j)));
-            for (var k: pairs) accum.merge(k, r.weight(), Double::sum);
-        }
-        WCMAP m = new WCMAP();
-        for (var e: accum.entrySet()) m.wc.put(e.getKey(), e.getValue()/total);
-        return m;
-    }
-}
\ No newline at end of file
+    /** Alphabet tối đa để dùng ma trận dày đặc (1024^2 float = 4MB). */
+    static final int DENSE_LIMIT = 1024;
+
+    private final EncodedCDB enc;
+    private final int n;
+    private final float[] dense;  // != null nếu dùng ma trận
+    private final long[] keys;    // bảng băm (khi dense == null)
+    private final float[] vals;
+    private final int mask;
+
+    private WCMAP(EncodedCDB enc, float[] dense, long[] keys, float[] vals) {
+        this.enc = enc;
+        this.n = enc.alphabetSize();
+        this.dense = dense;
+        this.keys = keys;
+        this.vals = vals;
+        this.mask = keys == null ? 0 : keys.length - 1;
+    }
+
+    /** Tra cứu không cấp phát, dùng trong vòng join. */
+    public double get(int x, int y) {
+        if (dense != null) return dense[x * n + y];
+        long k = PairAccumulator.key(x, y);
+        for (int i = PairAccumulator.slot(k, mask); ; i = (i + 1) & mask) {
+            long cur = keys[i];
+            if (cur == k) return vals[i];
+            if (cur == PairAccumulator.FREE) return 0.0;
+        }
+    }
+
+    public double get(String a, String b) {
+        int x = enc.id(a), y = enc.id(b);
+        if (x < 0 || y < 0) return 0.0;
+        return get(x, y);
+    }
+
+    public static WCMAP build(CDB cdb) { return build(cdb.encoded(), 1); }
+
+    public static WCMAP build(CDB cdb, int threads) { return build(cdb.encoded(), threads); }
+
+    /**
+     * Xây WCMAP song song: các dòng được chia thành các shard liên tiếp theo chỉ số,
+     * mỗi thread cộng dồn vào accumulator riêng, cuối cùng gộp lại và chuẩn hóa.
+     */
+    public static WCMAP build(EncodedCDB enc, int threads) {
+        int n = enc.alphabetSize();
+        boolean useDense = n <= DENSE_LIMIT;
+        int rows = enc.size();
+        int shards = Math.max(1, Math.min(threads, rows / 256 + 1));
+
+        List<PairAccumulator> parts = new ArrayList<>(shards);
+        if (shards == 1) {
+            parts.add(accumulate(enc, 0, rows, useDense));
+        } else {
+            ExecutorService es = Executors.newFixedThreadPool(shards);
+            List<Future<PairAccumulator>> futures = new ArrayList<>();
+            for (int s = 0; s < shards; s++) {
+                int from = (int) ((long) rows * s / shards), to = (int) ((long) rows * (s + 1) / shards);
+                futures.add(es.submit(() -> accumulate(enc, from, to, useDense)));
+            }
+            try {
+                for (var f : futures) parts.add(f.get());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                es.shutdown();
+            }
+        }
+
+        PairAccumulator acc = parts.get(0);
+        for (int s = 1; s < parts.size(); s++) acc.mergeFrom(parts.get(s));
+
+        double total = enc.totalWeight();
+        if (useDense) {
+            float[] dense = new float[n * n];
+            for (int i = 0; i < dense.length; i++) dense[i] = roundUp(acc.dense[i] / total);
+            return new WCMAP(enc, dense, null, null);
+        }
+        return fromHash(enc, acc, total);
+    }
+
+    /**
+     * Tuần tự hóa WCMAP (ma trận hoặc bảng băm, nguyên trạng) để gửi sang process khác đã có cùng
+     * EncodedCDB, thay vì để nó quét lại toàn bộ CDB. Dựng lại bằng {@link #fromBytes}.
+     */
+    public byte[] toBytes() {
+        int len = dense != null ? dense.length : keys.length;
+        ByteBuffer buf = ByteBuffer.allocate(9 + len * (dense != null ? 4 : 12));
+        buf.putInt(n).put((byte) (dense != null ? 1 : 0)).putInt(len);
+        if (dense != null) {
+            buf.asFloatBuffer().put(dense);
+        } else {
+            buf.asLongBuffer().put(keys);
+            buf.position(buf.position() + len * 8);
+            buf.asFloatBuffer().put(vals);
+        }
+        return buf.array();
+    }
+
+    /** WCMAP từ {@link #toBytes()}; enc phải có cùng từ điển item với EncodedCDB lúc build. */
+    public static WCMAP fromBytes(byte[] bytes, EncodedCDB enc) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int n = buf.getInt();
+        if (n != enc.alphabetSize())
+            throw new IllegalArgumentException("WCMAP cho alphabet " + n + " item, CDB có " + enc.alphabetSize());
+        boolean isDense = buf.get() != 0;
+        int len = buf.getInt();
+        if (isDense) {
+            float[] dense = new float[len];
+            buf.asFloatBuffer().get(dense);
+            return new WCMAP(enc, dense, null, null);
+        }
+        long[] keys = new long[len];
+        float[] vals = new float[len];
+        buf.asLongBuffer().get(keys);
+        buf.position(buf.position() + len * 8);
+        buf.asFloatBuffer().get(vals);
+        return new WCMAP(enc, null, keys, vals);
+    }
+
+    /** Chuẩn hóa accumulator dạng bảng băm thành WCMAP bất biến (bỏ các cặp không còn trọng số). */
+    private static WCMAP fromHash(EncodedCDB enc, PairAccumulator acc, double total) {
+        int cap = Integer.highestOneBit(Math.max(4, acc.size * 2 - 1)) << 1;
+        long[] keys = new long[cap];
+        float[] vals = new float[cap];
+        Arrays.fill(keys, PairAccumulator.FREE);
+        int mask = cap - 1;
+        for (int i = 0; i < acc.keys.length; i++) {
+            long k = acc.keys[i];
+            if (k == PairAccumulator.FREE || acc.vals[i] <= 0.0) continue;
+            int slot = PairAccumulator.slot(k, mask);
+            while (keys[slot] != PairAccumulator.FREE) slot = (slot + 1) & mask;
+            keys[slot] = k;
+            vals[slot] = roundUp(acc.vals[i] / total);
+        }
+        return new WCMAP(enc, null, keys, vals);
+    }
+
+    /**
+     * Cộng dồn các dòng [from, to). Cặp (x, y) xuất hiện trong dòng khi và chỉ khi lần xuất hiện
+     * đầu tiên của x đứng trước lần xuất hiện cuối cùng của y, nên chỉ cần duyệt các item phân biệt
+     * của dòng (không cần HashSet khử trùng lặp theo từng dòng).
+     */
+    private static PairAccumulator accumulate(EncodedCDB enc, int from, int to, boolean useDense) {
+        int n = enc.alphabetSize();
+        PairAccumulator acc = new PairAccumulator(useDense ? n : 0);
+        int[] first = new int[n], last = new int[n], stamp = new int[n];
+        int[] distinct = new int[16];
+        int[] items = enc.flatItems();
+        for (int r = from; r < to; r++) {
+            int start = enc.start(r), len = enc.length(r);
+            if (len < 2) continue;
+            int mark = r + 1, d = 0;
+            if (distinct.length < len) distinct = new int[len];
+            for (int i = 0; i < len; i++) {
+                int x = items[start + i];
+                if (stamp[x] != mark) {
+                    stamp[x] = mark;
+                    first[x] = i;
+                    distinct[d++] = x;
+                }
+                last[x] = i;
+            }
+            double w = enc.weight(r);
+            for (int i = 0; i < d; i++) {
+                int x = distinct[i];
+                int fx = first[x];
+                for (int j = 0; j < d; j++) {
+                    int y = distinct[j];
+                    if (fx < last[y]) acc.add(x, y, w);
+                }
+            }
+        }
+        return acc;
+    }
+
+    /**
+     * Accumulator WCMAP cho cửa sổ trượt: mỗi chuỗi được cộng vào khi chèn và trừ ra khi hết hạn
+     * (cùng cách khử trùng lặp cặp theo dòng như khi build), alphabet được phép tăng dần.
+     * snapshot() chuẩn hóa trạng thái hiện tại thành một WCMAP bất biến để cắt tỉa.
+     * Cộng rồi trừ số thực có thể để lại sai số rất nhỏ, nên snapshot nới giá trị lên một chút
+     * để vẫn là cận trên an toàn.
+     */
+    public static final class Incremental {
+        private PairAccumulator acc = new PairAccumulator(0);
+        private int[] first = new int[0], last = new int[0], stamp = new int[0];
+        private int[] distinct = new int[16];
+        private int mark;
+
+        public void add(int[] seq, double weight) { accumulate(seq, weight); }
+
+        public void remove(int[] seq, double weight) { accumulate(seq, -weight); }
+
+        /** Xóa sạch (kể cả sai số tích lũy); dùng trước khi cộng lại toàn bộ cửa sổ. */
+        public void clear() { acc = new PairAccumulator(0); }
+
+        private void accumulate(int[] seq, double w) {
+            int len = seq.length;
+            if (len < 2) return;
+            int d = 0;
+            mark++;
+            if (distinct.length < len) distinct = new int[len];
+            for (int i = 0; i < len; i++) {
+                int x = seq[i];
+                if (x >= stamp.length) {
+                    int cap = Math.max(x + 1, stamp.length * 2);
+                    first = Arrays.copyOf(first, cap);
+                    last = Arrays.copyOf(last, cap);
+                    stamp = Arrays.copyOf(stamp, cap);
+                }
+                if (stamp[x] != mark) {
+                    stamp[x] = mark;
+                    first[x] = i;
+                    distinct[d++] = x;
+                }
+                last[x] = i;
+            }
+            for (int i = 0; i < d; i++) {
+                int x = distinct[i];
+                for (int j = 0; j < d; j++) {
+                    int y = distinct[j];
+                    if (first[x] < last[y]) acc.add(x, y, w);
+                }
+            }
+        }
+
+        /** WCMAP của cửa sổ hiện tại; enc chỉ cần chứa từ điển item (cho get(String, String)). */
+        public WCMAP snapshot(EncodedCDB enc, double totalWeight) {
+            return fromHash(enc, acc, totalWeight / (1 + 1e-9));
+        }
+    }
+
+    private static float roundUp(double v) {
+        float f = (float) v;
+        return f < v ? Math.nextUp(f) : f;
+    }
+
+    /** Accumulator riêng của từng thread: mảng dày đặc hoặc bảng băm địa chỉ mở long -> double. */
+    static final class PairAccumulator {
+        static final long FREE = -1L;
+
+        final int n;
+        final double[] dense;
+        long[] keys;
+        double[] vals;
+        int size;
+
+        PairAccumulator(int denseN) {
+            this.n = denseN;
+            if (denseN > 0) {
+                dense = new double[denseN * denseN];
+            } else {
+                dense = null;
+                keys = new long[1024];
+                vals = new double[1024];
+                Arrays.fill(keys, FREE);
+            }
+        }
+
+        static long key(int x, int y) { return ((long) x << 32) | (y & 0xFFFFFFFFL); }
+
+        static int slot(long k, int mask) {
+            long h = k * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        void add(int x, int y, double w) {
+            if (dense != null) dense[x * n + y] += w;
+            else add(key(x, y), w);
+        }
+
+        void add(long k, double w) {
+            int mask = keys.length - 1;
+            int i = slot(k, mask);
+            while (true) {
+                long cur = keys[i];
+                if (cur == k) { vals[i] += w; return; }
+                if (cur == FREE) break;
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+            vals[i] = w;
+            if (++size * 2 > keys.length) rehash();
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            double[] oldVals = vals;
+            keys = new long[oldKeys.length * 2];
+            vals = new double[oldVals.length * 2];
+            Arrays.fill(keys, FREE);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                long k = oldKeys[i];
+                if (k == FREE) continue;
+                int s = slot(k, mask);
+                while (keys[s] != FREE) s = (s + 1) & mask;
+                keys[s] = k;
+                vals[s] = oldVals[i];
+            }
+        }
+
+        void mergeFrom(PairAccumulator other) {
+            if (dense != null) {
+                for (int i = 0; i < dense.length; i++) dense[i] += other.dense[i];
+                return;
+            }
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != FREE) add(other.keys[i], other.vals[i]);
+            }
+        }
+    }
+}